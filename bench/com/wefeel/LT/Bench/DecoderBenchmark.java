@@ -0,0 +1,98 @@
+package com.wefeel.LT.Bench;
+
+import com.wefeel.LT.Decoder;
+import com.wefeel.LT.Encoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to decode a whole object with {@code Decoder.frameReceived} under 
+ * loss. <br>
+ * <br>
+ * The frames that survive the loss are encoded once per trial, then each 
+ * invocation feeds them to a new decoder until it's finished. The 
+ * {@code frames} counter is reported next to the time of an invocation as 
+ * the time per frame fed.
+ * @author R Wang
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecoderBenchmark {
+
+	@Param({"1024"})
+	public int frameSize;
+
+	@Param({"1000", "10000"})
+	public int k;
+
+	@Param({"0", "0.3", "0.7"})
+	public double loss;
+
+	@Param({"SEQUENTIAL", "COUNTER", "PRECODE"})
+	public FrameMode mode;
+
+	private List<byte[]> frames;
+
+	@Setup(Level.Trial)
+	public void frames() {
+		byte[] data = new byte[k * frameSize];
+		Random r = new Random(1);
+		r.nextBytes(data);
+		Encoder e = new Encoder(data, frameSize, 1, mode.flags);
+		frames = new ArrayList<>();
+		Decoder d = new Decoder();
+		while (!d.finished()) {
+			byte[] f = e.next().toByteArr();
+			if (r.nextDouble() >= loss) {
+				frames.add(f);
+				d.frameReceived(f);
+			}
+		}
+		e.close();
+	}
+
+	@Benchmark
+	public Decoder decode(Frames counter) {
+		Decoder d = new Decoder();
+		for (byte[] f : frames) {
+			d.frameReceived(f);
+		}
+		counter.frames += frames.size();
+		return d;
+	}
+
+	/**
+	 * Frames fed to the decoders, reset every iteration
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Frames {
+		public long frames;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			frames = 0;
+		}
+	}
+
+}
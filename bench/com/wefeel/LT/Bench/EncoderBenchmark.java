@@ -0,0 +1,85 @@
+package com.wefeel.LT.Bench;
+
+import com.wefeel.LT.DefaultEncodedFrame;
+import com.wefeel.LT.EncodedFrame;
+import com.wefeel.LT.Encoder;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@code Encoder.next()} across frame sizes and numbers of 
+ * source frames (k). <br>
+ * <br>
+ * The encoder is created again for every iteration, as a sequential 
+ * neighbor stream keeps the neighbors of every frame generated.
+ * @author R Wang
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncoderBenchmark {
+
+	@Param({"256", "1024", "4096"})
+	public int frameSize;
+
+	@Param({"1000", "10000", "100000"})
+	public int k;
+
+	@Param({"SEQUENTIAL", "COUNTER"})
+	public FrameMode mode;
+
+	private byte[] data;
+	private Encoder encoder;
+	private ByteBuffer out;
+
+	@Setup(Level.Trial)
+	public void data() {
+		data = new byte[k * frameSize];
+		new Random(1).nextBytes(data);
+		out = ByteBuffer.allocateDirect(EncodedFrame.headerSize(mode.flags) + frameSize);
+	}
+
+	@Setup(Level.Iteration)
+	public void encoder() {
+		encoder = new Encoder(data, frameSize, 1, mode.flags);
+	}
+
+	@TearDown(Level.Iteration)
+	public void close() {
+		encoder.close();
+	}
+
+	@Benchmark
+	public DefaultEncodedFrame next() {
+		return encoder.next();
+	}
+
+	/**
+	 * Same frames written into a reused buffer, without the payload array
+	 * @return
+	 */
+	@Benchmark
+	public long nextIntoBuffer() {
+		out.clear();
+		return encoder.next(out);
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.wefeel.LT.Bench;
+
+import com.wefeel.LT.BufferEncodedFrame;
+import com.wefeel.LT.DefaultEncodedFrame;
+import com.wefeel.LT.Encoder;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serializing and parsing a frame, from a {@code byte[]} or a 
+ * {@code ByteBuffer}.
+ * @author R Wang
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBenchmark {
+
+	@Param({"256", "1024", "4096"})
+	public int frameSize;
+
+	private DefaultEncodedFrame frame;
+	private byte[] encoded;
+	private ByteBuffer direct;
+
+	@Setup
+	public void frame() {
+		byte[] data = new byte[100 * frameSize];
+		new Random(1).nextBytes(data);
+		try (Encoder e = new Encoder(data, frameSize, 1, FrameMode.COUNTER.flags)) {
+			frame = e.next();
+		}
+		encoded = frame.toByteArr();
+		direct = ByteBuffer.allocateDirect(encoded.length);
+		direct.put(encoded).flip();
+	}
+
+	@Benchmark
+	public byte[] toByteArr() {
+		return frame.toByteArr();
+	}
+
+	@Benchmark
+	public DefaultEncodedFrame parse() {
+		return new DefaultEncodedFrame(encoded);
+	}
+
+	/**
+	 * A view over the buffer, the payload isn't copied
+	 * @return
+	 */
+	@Benchmark
+	public long parseBuffer() {
+		return new BufferEncodedFrame(direct).getIndex();
+	}
+
+}
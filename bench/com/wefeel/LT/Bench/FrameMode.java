@@ -0,0 +1,24 @@
+package com.wefeel.LT.Bench;
+
+import com.wefeel.LT.EncodedFrame;
+
+/**
+ * Modes of the encoder the benchmarks run with, by name rather than by
+ * flags so the JSON results read on their own.
+ * @author R Wang
+ *
+ */
+public enum FrameMode {
+	/** Neighbors from the sequential stream, no flags */
+	SEQUENTIAL(0),
+	/** Neighbors from the counter stream, {@link EncodedFrame#FLAG_COUNTER} */
+	COUNTER(EncodedFrame.FLAG_COUNTER),
+	/** Counter stream with the precode, {@link EncodedFrame#FLAG_PRECODE} */
+	PRECODE(EncodedFrame.FLAG_COUNTER | EncodedFrame.FLAG_PRECODE);
+
+	public final int flags;
+
+	FrameMode(int flags) {
+		this.flags = flags;
+	}
+}
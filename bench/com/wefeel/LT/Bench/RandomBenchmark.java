@@ -0,0 +1,87 @@
+package com.wefeel.LT.Bench;
+
+import com.wefeel.LT.Random.NeighborGenerator;
+import com.wefeel.LT.Random.RobustSolitonGenerator;
+import com.wefeel.LT.Random.UniqueRNG;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the random streams behind every frame: the degree, the unique 
+ * neighbors, and both together through {@code NeighborGenerator}.
+ * @author R Wang
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RandomBenchmark {
+
+	@Param({"1000", "100000"})
+	public int k;
+
+	/** Number of neighbors drawn by {@code nextInts} */
+	@Param({"3", "50"})
+	public int degree;
+
+	private RobustSolitonGenerator soliton;
+	private UniqueRNG rng;
+	private int[] out;
+	private NeighborGenerator counter;
+	private NeighborGenerator sequential;
+	private int index;
+
+	@Setup(Level.Trial)
+	public void generators() {
+		soliton = new RobustSolitonGenerator(k, NeighborGenerator.DEFAULT_C, NeighborGenerator.DEFAULT_FAILURE_PROBABILITY, 1);
+		rng = new UniqueRNG(1);
+		out = new int[degree];
+		counter = new NeighborGenerator(1, k, false, NeighborGenerator.Version.COUNTER);
+	}
+
+	/**
+	 * The sequential stream keeps every index generated, start over each 
+	 * iteration
+	 */
+	@Setup(Level.Iteration)
+	public void sequential() {
+		sequential = new NeighborGenerator(1, k, false, NeighborGenerator.Version.SEQUENTIAL);
+		index = 0;
+	}
+
+	@Benchmark
+	public int solitonNext() {
+		return soliton.next();
+	}
+
+	@Benchmark
+	public int[] uniqueNextInts() {
+		rng.nextInts(k, degree, out);
+		return out;
+	}
+
+	@Benchmark
+	public int[] neighborsCounter() {
+		return counter.get(index++ & 0x3FFFFFFF);
+	}
+
+	@Benchmark
+	public int[] neighborsSequential() {
+		return sequential.get(index++);
+	}
+
+}
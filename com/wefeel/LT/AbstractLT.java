@@ -4,11 +4,53 @@ import com.wefeel.LT.Random.NeighborGenerator;
 
 public abstract class AbstractLT implements AutoCloseable {
 	protected int frameSize;
+	/** Number of bytes coded by this instance, i.e. a single block if the object is split */
 	protected long filesize;
+	/** Size of the whole object as sent in the header, same as filesize unless split into source blocks */
+	protected long objectSize;
+	/** Source block coded by this instance, see {@code SourceBlocks} */
+	protected int block;
+	protected int blockCount = 1;
 	/** Unique identifier of the LT data stream, also used as seed for random generator */
 	protected long nonce;
 	protected int nPackets;
+	/** How the stream is encoded, a combination of {@code EncodedFrame.FLAG_*} */
+	protected int flags;
 	protected NeighborGenerator random;
+	/** Degree distribution, see {@code CodeParameters} */
+	protected CodeParameters parameters = CodeParameters.DEFAULT;
+	
+	/**
+	 * Create the neighbor generator matching the flags of the stream
+	 * @param nonce
+	 * @param block Only used if {@code FLAG_BLOCK} is set
+	 * @param nPackets Number of source frames. With {@code FLAG_PRECODE} the 
+	 * generator covers all the intermediate symbols instead
+	 * @param flags
+	 * @param parameters Ignored with {@code FLAG_PRECODE}, and replaced by 
+	 * the row of {@code ParameterTable} with {@code FLAG_TUNED}
+	 * @return
+	 */
+	protected static NeighborGenerator createGenerator(long nonce, int block, int nPackets, int flags, CodeParameters parameters) {
+		if ((flags & ~EncodedFrame.KNOWN_FLAGS) != 0) {
+			throw new IllegalArgumentException("Unknown flags " + Integer.toHexString(flags));
+		}
+		long seed = (flags & EncodedFrame.FLAG_BLOCK) != 0 ? SourceBlocks.blockSeed(nonce, block) : nonce;
+		boolean systematic = (flags & EncodedFrame.FLAG_SYSTEMATIC) != 0;
+		NeighborGenerator.Version version = (flags & EncodedFrame.FLAG_COUNTER) != 0 ? NeighborGenerator.Version.COUNTER : NeighborGenerator.Version.SEQUENTIAL;
+		if ((flags & EncodedFrame.FLAG_PRECODE) != 0) {
+			int symbols = Precode.symbolCount(nPackets);
+			return new NeighborGenerator(seed, symbols, 
+					Precode.degrees(symbols, seed ^ NeighborGenerator.SOLITON_SEED), 
+					systematic, version);
+		}
+		if ((flags & EncodedFrame.FLAG_TUNED) != 0) {
+			parameters = ParameterTable.get(EncodedFrame.parameterId(flags));
+		}
+		return new NeighborGenerator(seed, nPackets, 
+				parameters.degrees(nPackets, seed ^ NeighborGenerator.SOLITON_SEED), 
+				systematic, version);
+	}
 	
 	protected int calcNumPacket(long totalBytes, int frameSize) {
 		return (int) Math.ceil(totalBytes / (double) (frameSize));
@@ -22,6 +64,18 @@ public abstract class AbstractLT implements AutoCloseable {
 		return filesize;
 	}
 
+	public long getObjectSize() {
+		return objectSize;
+	}
+
+	public int getBlock() {
+		return block;
+	}
+
+	public int getBlockCount() {
+		return blockCount;
+	}
+
 	public long getNonce() {
 		return nonce;
 	}
@@ -30,13 +84,31 @@ public abstract class AbstractLT implements AutoCloseable {
 		return nPackets;
 	}
 	
+	public int getFlags() {
+		return flags;
+	}
+	
+	/**
+	 * 
+	 * @return Degree distribution, the row of {@code ParameterTable} with 
+	 * {@code FLAG_TUNED}
+	 */
+	public CodeParameters getParameters() {
+		if ((flags & EncodedFrame.FLAG_TUNED) != 0) {
+			return ParameterTable.get(EncodedFrame.parameterId(flags));
+		}
+		return parameters;
+	}
+	
 	/**
 	 * 
 	 * @throws Exception 
 	 */
 	@Override
 	public void close() {
-		random.close();
+		if (random != null) {
+			random.close();
+		}
 	}
 
 }
@@ -0,0 +1,398 @@
+package com.wefeel.LT;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decode an object sent by a {@code BlockEncoder}. <br>
+ * <br>
+ * There is one {@code Decoder} per source block, and each frame is routed
+ * to the decoder of its block. Decoders are thread safe on their own, so
+ * frames can be decoded at the same time from several receiving threads,
+ * and {@link #framesReceived(Collection)} decodes a
+ * batch of frames with one task per block on a {@code ForkJoinPool}. <br>
+ * <br>
+ * Like {@code Decoder}, it's initialized with the first frame received, 
+ * and can decode straight into a file, each block being written at its 
+ * place.
+ * @author R Wang
+ *
+ */
+public class BlockDecoder implements AutoCloseable {
+
+	private volatile boolean initialized = false;
+
+	private long nonce;
+	private long filesize;
+	private int frameSize;
+	private int flags;
+	private SourceBlocks blocks;
+	private Decoder[] decoders;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	/** Id of the v2 session of the object */
+	private int session;
+	/** Number of v2 packets dropped as corrupted */
+	private final LongAdder corrupted = new LongAdder();
+	/** Shared by the decoders of all blocks, null to decode on the heap */
+	private FileChannel output;
+
+	/**
+	 * Decode on the heap
+	 */
+	public BlockDecoder() {
+	}
+
+	/**
+	 * Decode into a file, created or overwritten when the decoder is 
+	 * initialized, see {@link Decoder#Decoder(Path)}
+	 * @param output
+	 * @throws IOException
+	 */
+	public BlockDecoder(Path output) throws IOException {
+		this.output = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Initialize with the first frame received
+	 * @param frameOne
+	 */
+	void init(EncodedFrame frameOne) {
+		init(frameOne.getNonce(),
+				frameOne.getFilesize(),
+				frameOne.getFrameSize(),
+				frameOne.getFlags(),
+				frameOne.getBlockCount());
+	}
+
+	/**
+	 * Manually initialize the decoder
+	 * @param nonce
+	 * @param filesize Size of the whole object
+	 * @param frameSize
+	 * @param flags Combination of {@code EncodedFrame.FLAG_*}, {@code FLAG_BLOCK} is always added
+	 * @param blockCount
+	 */
+	public synchronized void init(long nonce, long filesize, int frameSize, int flags, int blockCount) {
+		if (initialized) {
+			return;
+		}
+		this.nonce = nonce;
+		this.filesize = filesize;
+		this.frameSize = frameSize;
+		this.flags = flags | EncodedFrame.FLAG_BLOCK;
+		session = WireFormat.sessionId(nonce, filesize, this.flags, frameSize, blockCount);
+		blocks = new SourceBlocks(filesize, frameSize, blockCount);
+		Decoder[] arr = new Decoder[blockCount];
+		for (int b = 0; b < blockCount; b++) {
+			arr[b] = output != null ? new Decoder(output) : new Decoder();
+			arr[b].initBlock(nonce, filesize, frameSize, this.flags, b, blockCount);
+		}
+		decoders = arr;
+		initialized = true;
+	}
+
+	/**
+	 * Set the pool used by {@link #framesReceived(Collection)}, the common
+	 * pool is used by default
+	 * @param pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Decode a frame, only its header is parsed to route it
+	 * @param encoded
+	 */
+	public void frameReceived(byte[] encoded) {
+		if (WireFormat.isV2(encoded)) {
+			packetReceived(ByteBuffer.wrap(encoded));
+			return;
+		}
+		if (encoded.length < EncodedFrame.HEADER_SIZE 
+				|| !routable(encoded.length, DefaultEncodedFrame.deserializeFlags(encoded))) {
+			return; // Too short to be routed
+		}
+		if (!initialized) {
+			frameReceived(new DefaultEncodedFrame(encoded));
+			return;
+		}
+		Decoder d = route(encoded);
+		if (d != null) {
+			d.frameReceived(encoded);
+		}
+	}
+
+	/**
+	 * Decode a frame from the position to the limit of a buffer, see 
+	 * {@link Decoder#frameReceived(ByteBuffer)}
+	 * @param encoded
+	 */
+	public void frameReceived(ByteBuffer encoded) {
+		if (WireFormat.isV2(encoded)) {
+			packetReceived(encoded);
+			return;
+		}
+		if (encoded.remaining() < EncodedFrame.HEADER_SIZE 
+				|| !routable(encoded.remaining(), BufferEncodedFrame.readFlags(encoded))) {
+			return;
+		}
+		if (!initialized) {
+			frameReceived(new BufferEncodedFrame(encoded));
+			return;
+		}
+		int frameFlags = BufferEncodedFrame.readFlags(encoded);
+		Decoder d = route(BufferEncodedFrame.readNonce(encoded), frameFlags, 
+				BufferEncodedFrame.readBlock(encoded), BufferEncodedFrame.readBlockCount(encoded));
+		if (d != null) {
+			d.frameReceived(encoded);
+		}
+	}
+
+	/**
+	 * Decode a v2 packet, see {@code WireFormat}
+	 * @param packet From its position to its limit, not moved
+	 */
+	private void packetReceived(ByteBuffer packet) {
+		if (WireFormat.type(packet) == WireFormat.TYPE_ANNOUNCE) {
+			WireFormat.Announce a = WireFormat.Announce.read(packet);
+			if (a == null) {
+				corrupted.increment();
+			} else if (!initialized && (a.flags & EncodedFrame.FLAG_BLOCK) != 0) {
+				init(a.nonce, a.objectSize, a.frameSize, a.flags, a.blockCount);
+			}
+			return;
+		}
+		if (!initialized || WireFormat.session(packet) != session) {
+			return; // Not announced yet, or another object
+		}
+		WireFormat.FrameReader reader = new WireFormat.FrameReader(packet, flags, frameSize);
+		while (reader.next()) {
+			if (reader.getBlock() < decoders.length) {
+				decoders[reader.getBlock()].frameReceived(reader);
+			}
+		}
+		if (reader.isCorrupted()) {
+			corrupted.increment();
+		}
+	}
+
+	/**
+	 * 
+	 * @return Number of v2 frames and announces dropped as corrupted, see 
+	 * {@link Decoder#getCorruptedCount()}
+	 */
+	public long getCorruptedCount() {
+		return corrupted.sum();
+	}
+
+	public void frameReceived(EncodedFrame frame) {
+		Decoder d = route(frame);
+		if (d != null) {
+			d.frameReceived(frame);
+		}
+	}
+
+	/**
+	 * Decode a batch of frames, with the blocks decoded in parallel
+	 * @param encoded
+	 */
+	public void framesReceived(Collection<byte[]> encoded) {
+		List<List<byte[]>> perBlock = null;
+		for (byte[] b : encoded) {
+			if (WireFormat.isV2(b)) {
+				packetReceived(ByteBuffer.wrap(b)); // Frames of all blocks in it
+				continue;
+			}
+			if (b.length < EncodedFrame.HEADER_SIZE 
+					|| !routable(b.length, DefaultEncodedFrame.deserializeFlags(b))) {
+				continue;
+			}
+			if (!initialized) {
+				route(new DefaultEncodedFrame(b)); // Initialize with it
+			}
+			if (route(b) == null) continue;
+			if (perBlock == null) {
+				perBlock = new ArrayList<>();
+				for (int i = 0; i < decoders.length; i++) {
+					perBlock.add(new ArrayList<>());
+				}
+			}
+			perBlock.get(DefaultEncodedFrame.deserializeBlock(b)).add(b);
+		}
+		if (perBlock == null) {
+			return;
+		}
+		List<RecursiveAction> tasks = new ArrayList<>();
+		for (int b = 0; b < decoders.length; b++) {
+			List<byte[]> frames = perBlock.get(b);
+			Decoder d = decoders[b];
+			if (frames.isEmpty()) continue;
+			tasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					for (byte[] f : frames) {
+						d.frameReceived(f);
+					}
+				}
+			});
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+	}
+
+	/**
+	 * 
+	 * @param length Of the frame, at least {@code EncodedFrame.HEADER_SIZE}
+	 * @param frameFlags
+	 * @return true if the frame has a block and is long enough for its header
+	 */
+	private static boolean routable(int length, int frameFlags) {
+		return (frameFlags & EncodedFrame.FLAG_BLOCK) != 0 && length >= EncodedFrame.headerSize(frameFlags);
+	}
+
+	/**
+	 *
+	 * @param frame
+	 * @return The decoder of the block of this frame, or null if this frame
+	 * doesn't belong to this object
+	 */
+	private Decoder route(EncodedFrame frame) {
+		if (!initialized) {
+			if ((frame.getFlags() & EncodedFrame.FLAG_BLOCK) == 0) {
+				return null;
+			}
+			init(frame);
+		}
+		return route(frame.getNonce(), frame.getFlags(), frame.getBlock(), frame.getBlockCount());
+	}
+
+	/**
+	 * Same as {@link #route(EncodedFrame)} from the header only, the 
+	 * decoder must be initialized
+	 * @param encoded
+	 * @return
+	 */
+	private Decoder route(byte[] encoded) {
+		int frameFlags = DefaultEncodedFrame.deserializeFlags(encoded);
+		if ((frameFlags & EncodedFrame.FLAG_BLOCK) == 0) {
+			return null;
+		}
+		return route(DefaultEncodedFrame.deserializeNonce(encoded), frameFlags, 
+				DefaultEncodedFrame.deserializeBlock(encoded), DefaultEncodedFrame.deserializeBlockCount(encoded));
+	}
+
+	private Decoder route(long frameNonce, int frameFlags, int frameBlock, int frameBlockCount) {
+		if (nonce != frameNonce || flags != frameFlags
+				|| frameBlockCount != decoders.length || frameBlock >= decoders.length) {
+			// Not from this object, silently discard it
+			return null;
+		}
+		return decoders[frameBlock];
+	}
+
+	public SourceBlocks getBlocks() {
+		return blocks;
+	}
+
+	/**
+	 *
+	 * @param block
+	 * @return Decoder of a single block
+	 */
+	public Decoder getDecoder(int block) {
+		return decoders[block];
+	}
+
+	public long getNonce() {
+		return nonce;
+	}
+
+	public long getFilesize() {
+		return filesize;
+	}
+
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	public int numFrameDecoded() {
+		int n = 0;
+		for (Decoder d : decoders) {
+			n += d.numFrameDecoded();
+		}
+		return n;
+	}
+
+	public boolean finished() {
+		if (!initialized) {
+			return false;
+		}
+		for (Decoder d : decoders) {
+			if (!d.finished()) return false;
+		}
+		return true;
+	}
+
+	public byte[] getDecoded() {
+		if (!finished()) {
+			throw new RuntimeException("Not finished decoding");
+		}
+		if (filesize > Integer.MAX_VALUE) {
+			throw new RuntimeException("Object too large for a byte[], use getDecodedAsStream()");
+		}
+		byte[] b = new byte[(int) filesize];
+		for (int i = 0; i < decoders.length; i++) {
+			byte[] block = decoders[i].getDecoded();
+			System.arraycopy(block, 0, b, (int) blocks.getOffset(i), block.length);
+		}
+		return b;
+	}
+
+	public InputStream getDecodedAsStream() {
+		if (!finished()) {
+			throw new RuntimeException("Not finished decoding");
+		}
+		List<InputStream> streams = new ArrayList<>();
+		for (Decoder d : decoders) {
+			streams.add(d.getDecodedAsStream());
+		}
+		return new SequenceInputStream(Collections.enumeration(streams));
+	}
+
+	@Override
+	public void close() {
+		if (decoders != null) {
+			for (Decoder d : decoders) {
+				d.close();
+			}
+		}
+		if (output != null) {
+			try {
+				output.close();
+			} catch (IOException e) {} // Nothing we can do here
+			output = null;
+		}
+	}
+
+}
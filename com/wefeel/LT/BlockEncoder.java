@@ -0,0 +1,242 @@
+package com.wefeel.LT;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encode a large object as independent source blocks. <br>
+ * <br>
+ * The object is split by {@code SourceBlocks}, and each block gets its own
+ * {@code Encoder} with its own neighbor generator, so the degree
+ * distribution and the neighbor indexes only span a block. Frames of all
+ * blocks are interleaved in round robin: frame {@code i} comes from block
+ * {@code i % blockCount}. Every frame carries {@code FLAG_BLOCK} and its
+ * block number so a {@code BlockDecoder} can route it. <br>
+ * <br>
+ * Like {@code Encoder}, this class is thread safe, and
+ * {@link #nextBatch(int)} encodes the blocks in parallel.
+ * @author R Wang
+ *
+ */
+public class BlockEncoder implements Iterator<DefaultEncodedFrame>, AutoCloseable {
+
+	private final SourceBlocks blocks;
+	/** Slices of the encoders may share its channel or mappings, closed last */
+	private final FrameSource source;
+	private final Encoder[] encoders;
+	private final long nonce;
+	/** Number of frames generated over all blocks, used for interleaving */
+	private final AtomicLong counter = new AtomicLong();
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	private volatile boolean closed;
+
+	/**
+	 *
+	 * @param data
+	 * @param frameSize
+	 * @param nonce
+	 * @param flags Combination of {@code EncodedFrame.FLAG_*}, {@code FLAG_BLOCK} is always added
+	 * @param maxBlockPackets Maximum number of frames in a block
+	 */
+	public BlockEncoder(byte[] data, int frameSize, long nonce, int flags, int maxBlockPackets) {
+		this(ByteArrFrameSource.of(data, frameSize), nonce, flags, maxBlockPackets);
+	}
+
+	/**
+	 * Encode a memory mapped file, see {@code MappedFrameSource}
+	 * @param file
+	 * @param frameSize
+	 * @param nonce
+	 * @param flags Combination of {@code EncodedFrame.FLAG_*}, {@code FLAG_BLOCK} is always added
+	 * @param maxBlockPackets Maximum number of frames in a block
+	 * @throws IOException
+	 */
+	public BlockEncoder(Path file, int frameSize, long nonce, int flags, int maxBlockPackets) throws IOException {
+		this(new MappedFrameSource(file, frameSize), nonce, flags, maxBlockPackets);
+	}
+
+	/**
+	 *
+	 * @param source Closed when this encoder is closed
+	 * @param nonce
+	 * @param flags Combination of {@code EncodedFrame.FLAG_*}, {@code FLAG_BLOCK} is always added
+	 * @param maxBlockPackets Maximum number of frames in a block
+	 */
+	public BlockEncoder(FrameSource source, long nonce, int flags, int maxBlockPackets) {
+		this.nonce = nonce;
+		this.source = source;
+		blocks = SourceBlocks.withMaxBlockPackets(source.getFilesize(), source.getFrameSize(), maxBlockPackets);
+		encoders = new Encoder[blocks.getBlockCount()];
+		// Blocks differ by one frame at most, they all use the row of the first
+		flags = ParameterTable.tune(flags, blocks.getNPackets(0));
+		for (int b = 0; b < encoders.length; b++) {
+			FrameSource slice = source.slice(blocks.getFirstPacket(b), blocks.getNPackets(b));
+			encoders[b] = new Encoder(slice, nonce, flags, source.getFilesize(), b, encoders.length);
+		}
+	}
+
+	public SourceBlocks getBlocks() {
+		return blocks;
+	}
+
+	public int getBlockCount() {
+		return encoders.length;
+	}
+
+	/**
+	 *
+	 * @param block
+	 * @return Encoder of a single block
+	 */
+	public Encoder getEncoder(int block) {
+		return encoders[block];
+	}
+
+	public long getNonce() {
+		return nonce;
+	}
+
+	/**
+	 *
+	 * @return Number of bytes of a serialized frame, header included
+	 */
+	public int getEncodedFrameSize() {
+		return encoders[0].getEncodedFrameSize();
+	}
+
+	/**
+	 * Set the pool used by {@link #nextBatch(int)}, the common pool is used
+	 * by default
+	 * @param pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+		for (Encoder e : encoders) {
+			e.setPool(pool);
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !closed;
+	}
+
+	@Override
+	public DefaultEncodedFrame next() {
+		return encoders[nextBlock()].next();
+	}
+
+	/**
+	 * Write the next frame into {@code out}, see {@link Encoder#next(ByteBuffer)}
+	 * @param out
+	 * @return Index of the frame in its block
+	 */
+	public long next(ByteBuffer out) {
+		return encoders[nextBlock()].next(out);
+	}
+
+	/**
+	 * Write a v2 announce packet of the object, see 
+	 * {@link Encoder#writeAnnounce(ByteBuffer)}
+	 * @param out
+	 */
+	public void writeAnnounce(ByteBuffer out) {
+		encoders[0].writeAnnounce(out);
+	}
+
+	/**
+	 * Write a v2 packet of the next frames, interleaved like 
+	 * {@link #next()}, see {@link Encoder#nextPacket(ByteBuffer, int)}
+	 * @param out Needs room for at least one frame
+	 * @param maxFrames
+	 * @return Number of frames written
+	 */
+	public int nextPacket(ByteBuffer out, int maxFrames) {
+		int frameMax = WireFormat.maxFrameSize(encoders[0].getFlags(), encoders[0].getFrameSize());
+		if (out.remaining() < WireFormat.PACKET_HEADER_SIZE + frameMax) {
+			throw new BufferOverflowException();
+		}
+		WireFormat.writeHeader(out, WireFormat.TYPE_FRAMES, encoders[0].getSessionId());
+		long previous = -1;
+		int n = 0;
+		while (n < maxFrames && out.remaining() >= frameMax) {
+			previous = encoders[nextBlock()].writeFrame(out, previous);
+			n++;
+		}
+		return n;
+	}
+
+	private int nextBlock() {
+		return (int) (counter.getAndIncrement() % encoders.length);
+	}
+
+	/**
+	 * Generate the next {@code n} frames, interleaved the same way as
+	 * {@link #next()}, with all blocks encoded in parallel
+	 * @param n
+	 * @return
+	 */
+	public DefaultEncodedFrame[] nextBatch(int n) {
+		long first = counter.getAndAdd(n);
+		int nBlocks = encoders.length;
+		// Number of frames of each block in this batch
+		int[] counts = new int[nBlocks];
+		for (int i = 0; i < n && i < nBlocks; i++) {
+			counts[(int) ((first + i) % nBlocks)] = (n - i + nBlocks - 1) / nBlocks;
+		}
+		DefaultEncodedFrame[][] perBlock = new DefaultEncodedFrame[nBlocks][];
+		List<RecursiveAction> tasks = new ArrayList<>();
+		for (int b = 0; b < nBlocks; b++) {
+			int block = b;
+			if (counts[b] > 0) {
+				tasks.add(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						perBlock[block] = encoders[block].nextBatch(counts[block]);
+					}
+				});
+			}
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		// Interleave back in round robin order
+		DefaultEncodedFrame[] frames = new DefaultEncodedFrame[n];
+		int[] used = new int[nBlocks];
+		for (int i = 0; i < n; i++) {
+			int b = (int) ((first + i) % nBlocks);
+			frames[i] = perBlock[b][used[b]++];
+		}
+		return frames;
+	}
+
+	@Override @Deprecated
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		for (Encoder e : encoders) {
+			e.close();
+		}
+		source.close();
+	}
+
+}
@@ -0,0 +1,116 @@
+package com.wefeel.LT;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An encoded frame read in place from a {@code ByteBuffer}, e.g. the 
+ * direct buffer a datagram was received into. <br>
+ * <br>
+ * The header is parsed with a few absolute reads and the payload is a 
+ * slice of the buffer, so nothing is copied until {@link #getData()} is 
+ * called. The frame is only valid as long as the content of the buffer 
+ * doesn't change: a {@code Decoder} copies the payload out once, straight 
+ * into the array it decodes in, and only if the frame is useful, so the 
+ * buffer can be reused as soon as {@code frameReceived} returns.
+ * @author R Wang
+ *
+ */
+public class BufferEncodedFrame extends EncodedFrame {
+
+	/** The whole frame, header included, from position 0 */
+	private final ByteBuffer frame;
+	private final ByteBuffer payload;
+
+	/**
+	 * View of the frame from the position to the limit of the buffer. The 
+	 * position and limit of the buffer are left alone
+	 * @param encoded
+	 */
+	public BufferEncodedFrame(ByteBuffer encoded) {
+		super(readNonce(encoded), readFilesize(encoded), readIndex(encoded), null);
+		frame = encoded.slice(); // Big endian from 0, whatever the buffer
+		flags = readFlags(encoded);
+		if ((flags & FLAG_BLOCK) != 0) {
+			block = readBlock(encoded);
+			blockCount = readBlockCount(encoded);
+		}
+		int headerSize = headerSize(flags);
+		payload = frame.slice(headerSize, frame.limit() - headerSize).asReadOnlyBuffer();
+	}
+
+	// Header fields of the frame at the position of a buffer, big endian whatever its order
+
+	static long readNonce(ByteBuffer encoded) {
+		long l = encoded.getLong(encoded.position());
+		return encoded.order() == ByteOrder.BIG_ENDIAN ? l : Long.reverseBytes(l);
+	}
+
+	static long readFilesize(ByteBuffer encoded) {
+		return ((readShort(encoded, 8) & 0xFFFFl) << 32) | (readInt(encoded, 10) & 0xFFFFFFFFl);
+	}
+
+	static int readFlags(ByteBuffer encoded) {
+		return encoded.get(encoded.position() + 14) & 0xFF;
+	}
+
+	static long readIndex(ByteBuffer encoded) {
+		return ((encoded.get(encoded.position() + 15) & 0xFFl) << 32) | (readInt(encoded, 16) & 0xFFFFFFFFl);
+	}
+
+	/**
+	 * Only valid if {@code FLAG_BLOCK} is set
+	 */
+	static int readBlock(ByteBuffer encoded) {
+		return readShort(encoded, 20) & 0xFFFF;
+	}
+
+	/**
+	 * Only valid if {@code FLAG_BLOCK} is set
+	 */
+	static int readBlockCount(ByteBuffer encoded) {
+		return readShort(encoded, 22) & 0xFFFF;
+	}
+
+	private static int readInt(ByteBuffer encoded, int at) {
+		int i = encoded.getInt(encoded.position() + at);
+		return encoded.order() == ByteOrder.BIG_ENDIAN ? i : Integer.reverseBytes(i);
+	}
+
+	private static short readShort(ByteBuffer encoded, int at) {
+		short s = encoded.getShort(encoded.position() + at);
+		return encoded.order() == ByteOrder.BIG_ENDIAN ? s : Short.reverseBytes(s);
+	}
+
+	/**
+	 * 
+	 * @return Read only view of the payload, not a copy
+	 */
+	public ByteBuffer getPayload() {
+		return payload.duplicate();
+	}
+
+	/**
+	 * 
+	 * @return A copy of the payload
+	 */
+	@Override
+	public byte[] getData() {
+		byte[] b = new byte[payload.limit()];
+		payload.get(0, b);
+		return b;
+	}
+
+	@Override
+	public int getFrameSize() {
+		return payload.limit();
+	}
+
+	@Override
+	public byte[] toByteArr() {
+		byte[] b = new byte[frame.limit()];
+		frame.get(0, b);
+		return b;
+	}
+
+}
@@ -0,0 +1,183 @@
+package com.wefeel.LT;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of payload arrays of a single frame size, to encode and decode 
+ * without allocating a {@code byte[]} per frame. <br>
+ * <br>
+ * Each thread keeps a small stack of arrays of its own, used without any 
+ * lock. When it runs out, it takes half a stack at once from a shared slab, 
+ * and when it's full it gives half back, so the slab's lock is only taken 
+ * once every few frames. Arrays given back to a full slab are left to the 
+ * GC. Arrays are not cleared, they are always overwritten whole. <br>
+ * <br>
+ * It's opt in: set one with {@code Encoder.setBufferPool} and 
+ * {@code Decoder.setBufferPool}, the same pool can serve several encoders 
+ * and decoders of the same frame size one after another or at once. An 
+ * {@code Encoder} frame is given back with 
+ * {@link DefaultEncodedFrame#recycle()}, and a {@code Decoder} gives back 
+ * every payload it's done with: duplicates, frames with nothing new, 
+ * frames made redundant, frames left when closed, and decoded frames once 
+ * written to a mapped output file. <br>
+ * <br>
+ * The hit, miss, release and drop counters tell how well the pool is 
+ * sized: after warming up, a transfer should only hit.
+ * @author R Wang
+ *
+ */
+public class BufferPool {
+
+	/** Arrays kept by each thread */
+	public static final int DEFAULT_LOCAL_CAPACITY = 32;
+	/** Arrays kept in the shared slab */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private final int frameSize;
+	private final int localCapacity;
+	/** Shared arrays, guarded by this */
+	private final byte[][] slab;
+	private int slabSize;
+	private final ThreadLocal<Local> local;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder released = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * Pool with the default capacities
+	 * @param frameSize Length of the arrays
+	 */
+	public BufferPool(int frameSize) {
+		this(frameSize, DEFAULT_CAPACITY, DEFAULT_LOCAL_CAPACITY);
+	}
+
+	/**
+	 * 
+	 * @param frameSize Length of the arrays
+	 * @param capacity Arrays kept in the shared slab
+	 * @param localCapacity Arrays kept by each thread, at least 2
+	 */
+	public BufferPool(int frameSize, int capacity, int localCapacity) {
+		if (frameSize <= 0 || capacity < 0 || localCapacity < 2) {
+			throw new IllegalArgumentException("Invalid pool size");
+		}
+		this.frameSize = frameSize;
+		this.localCapacity = localCapacity;
+		slab = new byte[capacity][];
+		local = ThreadLocal.withInitial(() -> new Local(localCapacity));
+	}
+
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	/**
+	 * 
+	 * @return An array of {@code frameSize} bytes, with any content
+	 */
+	public byte[] acquire() {
+		Local l = local.get();
+		if (l.size == 0) {
+			synchronized (this) {
+				int n = Math.min(slabSize, localCapacity / 2);
+				for (int i = 0; i < n; i++) {
+					l.arrays[l.size++] = slab[--slabSize];
+					slab[slabSize] = null;
+				}
+			}
+			if (l.size == 0) {
+				misses.increment();
+				return new byte[frameSize];
+			}
+		}
+		hits.increment();
+		byte[] b = l.arrays[--l.size];
+		l.arrays[l.size] = null;
+		return b;
+	}
+
+	/**
+	 * Give an array back. It must not be used after, by anyone
+	 * @param b Ignored if null, dropped if not {@code frameSize} long
+	 */
+	public void release(byte[] b) {
+		if (b == null) {
+			return;
+		}
+		if (b.length != frameSize) {
+			dropped.increment();
+			return;
+		}
+		Local l = local.get();
+		if (l.size == localCapacity) {
+			synchronized (this) {
+				int n = localCapacity / 2;
+				for (int i = 0; i < n; i++) {
+					byte[] spill = l.arrays[--l.size];
+					l.arrays[l.size] = null;
+					if (slabSize < slab.length) {
+						slab[slabSize++] = spill;
+					} else {
+						dropped.increment();
+					}
+				}
+			}
+		}
+		l.arrays[l.size++] = b;
+		released.increment();
+	}
+
+	/**
+	 * 
+	 * @return Number of {@link #acquire()} served from the pool
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * 
+	 * @return Number of {@link #acquire()} that had to allocate
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * 
+	 * @return Number of arrays given back
+	 */
+	public long getReleased() {
+		return released.sum();
+	}
+
+	/**
+	 * 
+	 * @return Number of arrays left to the GC, as the pool was full or they 
+	 * had the wrong size
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "BufferPool[" + frameSize + " bytes, hits " + getHits() + ", misses " + getMisses() 
+				+ ", released " + getReleased() + ", dropped " + getDropped() + "]";
+	}
+
+	/**
+	 * Arrays of a single thread
+	 */
+	private static class Local {
+		final byte[][] arrays;
+		int size;
+
+		Local(int capacity) {
+			arrays = new byte[capacity][];
+		}
+	}
+
+}
@@ -37,7 +37,7 @@ public class ByteArrArrayInputStream extends InputStream {
 			gotoNextRow();
 		}
 		available--;
-		return data[x][y++];
+		return data[x][y++] & 0xFF;
 	}
 	
 	@Override
@@ -73,6 +73,7 @@ public class ByteArrArrayInputStream extends InputStream {
 		if (available <= 0) {
 			return -1;
 		}
+		len = Math.min(len, available); // Don't read the padding of the last row
     	int read = 0;
     	int availableThisRow;
     	while (true) {
@@ -0,0 +1,84 @@
+package com.wefeel.LT;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Source frames kept on the heap as a byte[][], each row being one frame of
+ * exactly {@code frameSize} bytes (the last one padded with 0)
+ * @author R Wang
+ *
+ */
+public class ByteArrFrameSource implements FrameSource {
+
+	private byte[][] data;
+	private final long filesize;
+	private final int frameSize;
+
+	public ByteArrFrameSource(byte[][] data, long filesize, int frameSize) {
+		this.data = data;
+		this.filesize = filesize;
+		this.frameSize = frameSize;
+	}
+
+	/**
+	 * Split data into frames. The data is copied
+	 * @param data
+	 * @param frameSize
+	 * @return
+	 */
+	public static ByteArrFrameSource of(byte[] data, int frameSize) {
+		int noFrame = (int) Math.ceil(data.length / (double) frameSize);
+		byte[][] frames = new byte[noFrame][frameSize];
+		noFrame--; // should use a new variable but oh well
+		for (int i = 0; i < noFrame; i++) { // Populate the byte[][]
+			System.arraycopy(data, i * frameSize, frames[i], 0, frameSize);
+		}
+		// Copy the last frame, which may has fewer bytes than a frame
+		System.arraycopy(data, noFrame * frameSize, frames[noFrame], 0, data.length - noFrame * frameSize);
+		return new ByteArrFrameSource(frames, data.length, frameSize);
+	}
+
+	public byte[][] getData() {
+		return data;
+	}
+
+	@Override
+	public long getFilesize() {
+		return filesize;
+	}
+
+	@Override
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	@Override
+	public int getNPackets() {
+		return data.length;
+	}
+
+	@Override
+	public void combine(byte[] target, int[] indexes) {
+		XorEngine.get().combine(target, data, indexes);
+	}
+
+	@Override
+	public void combine(ByteBuffer target, int targetIndex, int[] indexes) {
+		XorEngine.get().combine(target, targetIndex, data, indexes, frameSize);
+	}
+
+	@Override
+	public FrameSource slice(int first, int count) {
+		long offset = (long) first * frameSize;
+		// Only the references to the rows are copied
+		return new ByteArrFrameSource(Arrays.copyOfRange(data, first, first + count), 
+				Math.min((long) count * frameSize, filesize - offset), frameSize);
+	}
+
+	@Override
+	public void close() {
+		data = null;
+	}
+
+}
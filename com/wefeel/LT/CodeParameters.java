@@ -0,0 +1,123 @@
+package com.wefeel.LT;
+
+import com.wefeel.LT.Random.DegreeGenerator;
+import com.wefeel.LT.Random.NeighborGenerator;
+import com.wefeel.LT.Random.RobustSolitonGenerator;
+
+/**
+ * Parameters of the robust soliton degree distribution of a stream. <br>
+ * <br>
+ * The distribution is set either by {@code c}, from which the spike is 
+ * derived, or by the position of the spike directly, and by {@code delta}, 
+ * the failure probability it's designed for. {@link #DEFAULT} is what 
+ * streams use unless told otherwise: the spike at {@code ln(k)^2}. Both 
+ * ends must use the same parameters, nothing about them is sent, except 
+ * for a stream with {@code FLAG_TUNED} which uses a row of 
+ * {@code ParameterTable} picked by its ID. A precoded stream has a 
+ * distribution of its own and ignores them.
+ * @author R Wang
+ *
+ */
+public final class CodeParameters {
+
+	public static final CodeParameters DEFAULT = new CodeParameters(0, 0, NeighborGenerator.DEFAULT_FAILURE_PROBABILITY);
+
+	/** 0 if set by the spike */
+	private final double c;
+	/** 0 for {@code ln(k)^2} */
+	private final int spike;
+	private final double delta;
+
+	private CodeParameters(double c, int spike, double delta) {
+		if (c < 0 || spike < 0 || !(delta > 0 && delta < 1)) {
+			throw new IllegalArgumentException("Invalid parameters c " + c + " spike " + spike + " delta " + delta);
+		}
+		this.c = c;
+		this.spike = spike;
+		this.delta = delta;
+	}
+
+	/**
+	 * 
+	 * @param c Positive, the spike is at {@code k / (c ln(k / delta) sqrt(k))}
+	 * @param delta Failure probability, in (0, 1)
+	 * @return
+	 */
+	public static CodeParameters withC(double c, double delta) {
+		if (!(c > 0)) {
+			throw new IllegalArgumentException("Invalid c " + c);
+		}
+		return new CodeParameters(c, 0, delta);
+	}
+
+	/**
+	 * 
+	 * @param spike Position of the spike, 0 for {@code ln(k)^2}
+	 * @param delta Failure probability, in (0, 1)
+	 * @return
+	 */
+	public static CodeParameters withSpike(int spike, double delta) {
+		return new CodeParameters(0, spike, delta);
+	}
+
+	public double getC() {
+		return c;
+	}
+
+	public int getSpike() {
+		return spike;
+	}
+
+	public double getDelta() {
+		return delta;
+	}
+
+	/**
+	 * 
+	 * @param nPackets
+	 * @param seed
+	 * @return Degree generator of a stream of nPackets source frames
+	 */
+	DegreeGenerator degrees(int nPackets, long seed) {
+		if (c > 0) {
+			return new RobustSolitonGenerator(nPackets, c, delta, seed);
+		}
+		int s = spike > 0 ? spike : (int) Math.ceil(Math.log(nPackets) * Math.log(nPackets));
+		return new RobustSolitonGenerator(nPackets, s > 0 ? s : 1, delta, seed);
+	}
+
+	/**
+	 * 
+	 * @param nPackets
+	 * @return Average number of neighbors of a frame, i.e. XOR per frame
+	 */
+	public double meanDegree(int nPackets) {
+		DegreeGenerator d = degrees(nPackets, 0);
+		int n = 1 << 14;
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += d.degree((i + 0.5) / n);
+		}
+		return sum / n;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof CodeParameters)) {
+			return false;
+		}
+		CodeParameters p = (CodeParameters) o;
+		return c == p.c && spike == p.spike && delta == p.delta;
+	}
+
+	@Override
+	public int hashCode() {
+		return Double.hashCode(c) * 31 * 31 + spike * 31 + Double.hashCode(delta);
+	}
+
+	@Override
+	public String toString() {
+		return (c > 0 ? "c=" + c : "spike=" + (spike > 0 ? spike : "ln(k)^2")) + " delta=" + delta;
+	}
+
+}
@@ -0,0 +1,146 @@
+package com.wefeel.LT;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read only view of the data of a {@code Decoder}, readable while decoding 
+ * is still going on. <br>
+ * <br>
+ * A read returns at once if the frame at the current position is already 
+ * decoded, with as many bytes as are decoded in a row from there. Else it 
+ * blocks until that frame is decoded, or throws 
+ * {@code InterruptedByTimeoutException} when the timeout is up, leaving the 
+ * position unchanged so the read can be retried. Streaming consumers can 
+ * start on the first bytes long before the whole object is received. <br>
+ * <br>
+ * The decoder can keep receiving frames from another thread. Reads before 
+ * the decoder is initialized wait for the first frame the same way.
+ * @author R Wang
+ *
+ */
+public class DecodedChannel implements SeekableByteChannel {
+
+	private final Decoder decoder;
+	private final long timeoutNanos;
+	private long position;
+	private volatile boolean closed;
+
+	/**
+	 * 
+	 * @param decoder
+	 * @param timeout How long a read waits for missing data
+	 * @param unit
+	 */
+	public DecodedChannel(Decoder decoder, long timeout, TimeUnit unit) {
+		this.decoder = decoder;
+		this.timeoutNanos = unit.toNanos(timeout);
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if (!dst.hasRemaining()) {
+			return 0;
+		}
+		long size = size();
+		if (position >= size) {
+			return -1;
+		}
+		int frameSize = decoder.getFrameSize();
+		int read = 0;
+		while (dst.hasRemaining() && position < size) {
+			int i = (int) (position / frameSize);
+			// Only wait for the first frame, return what's there after it
+			if (!await(i, read == 0 ? timeoutNanos : 0)) {
+				if (read == 0) {
+					throw new InterruptedByTimeoutException();
+				}
+				break;
+			}
+			int offset = (int) (position % frameSize);
+			int len = (int) Math.min(Math.min(dst.remaining(), frameSize - offset), size - position);
+			decoder.getFrame(i, offset, dst, len);
+			position += len;
+			read += len;
+		}
+		return read;
+	}
+
+	private boolean await(int i, long nanos) throws IOException {
+		try {
+			return decoder.awaitFrame(i, nanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new ClosedByInterruptException();
+		}
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+		ensureOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("Negative position " + newPosition);
+		}
+		position = newPosition;
+		return this;
+	}
+
+	/**
+	 * Size of the data, waits for the decoder to be initialized
+	 */
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		try {
+			if (!decoder.awaitInit(timeoutNanos)) {
+				throw new InterruptedByTimeoutException();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new ClosedByInterruptException();
+		}
+		return decoder.getFilesize();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+	private void ensureOpen() throws ClosedChannelException {
+		if (closed) {
+			throw new ClosedChannelException();
+		}
+	}
+
+}
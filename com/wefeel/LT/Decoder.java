@@ -1,29 +1,135 @@
 package com.wefeel.LT;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import com.wefeel.LT.Random.NeighborGenerator;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Decode a stream of {@code EncodedFrame}. <br>
+ * <br>
+ * {@link #frameReceived(EncodedFrame)} can be called from several 
+ * receiving threads at once. Each thread checks the header, drops 
+ * duplicates (see {@code FrameIndexSet}) and frames whose neighbors are 
+ * all decoded already, and derives the neighbors of the rest. Given the 
+ * raw bytes or a {@code ByteBuffer}, only the header is parsed for that, 
+ * and the payload is only copied out of frames that pass, once, into the 
+ * array it's decoded in. Those are handed over through a lock free queue to the peeling 
+ * core, which is run by whichever receiving thread gets its lock: the 
+ * others just leave their frames in the queue and return. So a frame may 
+ * be decoded by another thread shortly after {@code frameReceived} returns, 
+ * and a single receiving thread always decodes its frames itself. The 
+ * decoded data doesn't depend on the order frames are peeled in. <br>
+ * <br>
+ * Constructed with an output file, the source frames are decoded straight 
+ * into it through a {@code MappedFrameSink} instead of being kept on the 
+ * heap, which suits objects larger than the heap or than 2 GiB. <br>
+ * <br>
+ * Frames are accepted in both wire formats: v1, a {@code DefaultEncodedFrame} 
+ * each, and v2 packets, see {@code WireFormat}. A v2 stream is initialized 
+ * by its announce packet, and its frames are dropped until then.
+ * @author R Wang
+ *
+ */
 public class Decoder extends AbstractLT implements AutoCloseable {
 	
 	public static boolean DEBUG = false;
 	
 	private volatile boolean initialized = false;
 	
-	/** Keep a weak reference of all frames received. Probably won't need them anyway */
-	private Map<Long, WeakReference> receivedEncodedFrames;
 	/** This is the collection of original frames that we want to get, and we'll populate this 2D array as we get new data */
 	private byte[][] rawFrames;
-	/** We keep a list of frames that can't be decoded yet as the required raw frame hasn't been available, and will pop from the list for decoding when the data can be decoded */
-	private ArrList waitingRawFrameList;
+	/** Frames that can't be decoded yet as some of their raw frames aren't available, see {@code TannerGraph} */
+	private TannerGraph graph;
 	
-	private int decodedCount = 0;
+	/** Set by {@link #close()}, frames are dropped from then on */
+	private volatile boolean closed;
+	/** Number of frames handed over to the peeling core, i.e. not discarded */
+	private int receivedCount = 0;
+	/** Same as {@code graph.getDecodedRequired()}, readable from any thread */
+	private volatile int decodedCount;
+	
+	/** Held by the thread running the peeling core, guards graph, solver and receivedCount */
+	private final ReentrantLock core = new ReentrantLock();
+	/** Frames waiting for the peeling core */
+	private final ConcurrentLinkedQueue<Received> queue = new ConcurrentLinkedQueue<>();
+	/** Indexes of the frames received */
+	private final FrameIndexSet seen = new FrameIndexSet();
+	/** Id of the v2 session of this stream */
+	private int session;
+	/** Number of v2 frames and announces dropped as corrupted */
+	private final LongAdder corrupted = new LongAdder();
+	
+	/** Lock and condition of {@link #ready}, notified when source frames are decoded */
+	private final Object progress = new Object();
+	/** 
+	 * Bitset of the source frames decoded, set under {@link #progress} after 
+	 * the frame is written so other threads can read decoded frames safely. 
+	 * Null until initialized
+	 */
+	private long[] ready;
+	/** Frames readers are waiting for, so they are only woken up when one is decoded */
+	private int[] awaited = new int[4];
+	private int nAwaited;
+	
+	/** Where to decode the object, null to keep it on the heap */
+	private FileChannel output;
+	/** Only set if the output was opened by us, and so should be closed by us */
+	private FileChannel ownOutput;
+	private MappedFrameSink sink;
+	/** Where payloads come from and go back to, null to allocate them */
+	private volatile BufferPool bufferPool;
+	
+	/** Fall back to inactivation decoding when peeling stalls */
+	private boolean inactivation = true;
+	private InactivationSolver solver;
+	/** XOR of payloads done by inactivation decoding, written under core */
+	private volatile long solveXors;
+	/** 
+	 * receivedCount below which the automatic solve can't succeed yet, as 
+	 * the last attempt was short of that many equations. Guarded by core
+	 */
+	private int solveAfter;
+	
+	/**
+	 * Decode on the heap
+	 */
+	public Decoder() {
+	}
+	
+	/**
+	 * Decode into a file, created or overwritten when the decoder is 
+	 * initialized. The file is only complete once {@link #finished()}
+	 * @param output
+	 * @throws IOException
+	 */
+	public Decoder(Path output) throws IOException {
+		this(FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+		ownOutput = this.output;
+	}
+	
+	/**
+	 * Decode into a file channel, the whole object from position 0. In a 
+	 * source block, only the block is written, at its position in the whole 
+	 * object, so the decoders of all blocks can share the channel. 
+	 * The channel is not closed by this class
+	 * @param output Must be readable and writable
+	 */
+	public Decoder(FileChannel output) {
+		this.output = output;
+	}
 	
 	// SECTION Initialization. The decoder is normally initialized when receiving the first frame, but can be initialized manually as required
 	
@@ -31,12 +137,26 @@ public class Decoder extends AbstractLT implements AutoCloseable {
 	 * Initialize the decoder with the first frame received. Be very careful not to mix different fountain streams as it won't decode
 	 * @param frameOne First frame received. All data will be modeled after this frame
 	 */
-	void init(DefaultEncodedFrame frameOne) {
+	synchronized void init(EncodedFrame frameOne) {
+		if (initialized) {
+			return; // Another receiving thread was first
+		}
+		if ((frameOne.getFlags() & EncodedFrame.FLAG_BLOCK) != 0) {
+			initBlock(
+					frameOne.getNonce(), 
+					frameOne.getFilesize(), 
+					frameOne.getFrameSize(), 
+					frameOne.getFlags(), 
+					frameOne.getBlock(), 
+					frameOne.getBlockCount());
+			return;
+		}
 		init(
 				frameOne.getNonce(), 
 				frameOne.getFilesize(), 
 				(int) Math.ceil(((double) frameOne.getFilesize()) / frameOne.getFrameSize()), 
-				frameOne.getFrameSize()
+				frameOne.getFrameSize(),
+				frameOne.getFlags()
 			);
 	}
 	
@@ -49,51 +169,639 @@ public class Decoder extends AbstractLT implements AutoCloseable {
 	 * @param frameSize
 	 */
 	public void init(long nonce, long filesize, int nPackets, int frameSize) {
+		init(nonce, filesize, nPackets, frameSize, 0);
+	}
+	
+	/**
+	 * Manually initialize the decoder by giving all parameters directly. Good 
+	 * when you know the parameters exactly
+	 * @param nonce
+	 * @param filesize
+	 * @param nPackets
+	 * @param frameSize
+	 * @param flags Combination of {@code EncodedFrame.FLAG_*}, must be the same as the encoder's
+	 */
+	public synchronized void init(long nonce, long filesize, int nPackets, int frameSize, int flags) {
+		if (initialized) {
+			return;
+		}
 		this.nonce = nonce; 
 		this.filesize = filesize;
 		this.nPackets = nPackets;
 		this.frameSize = frameSize;
-		random = new NeighborGenerator(nonce, nPackets);
-		receivedEncodedFrames = new HashMap<>();
-		waitingRawFrameList = new ArrList(nPackets);
-		rawFrames = new byte[nPackets][];
-		initialized = true;
+		this.flags = flags;
+		if ((flags & EncodedFrame.FLAG_BLOCK) == 0) {
+			this.objectSize = filesize;
+		}
+		random = createGenerator(nonce, block, nPackets, flags, parameters);
+		session = WireFormat.sessionId(nonce, objectSize, flags, frameSize, blockCount);
+		// With a precode the intermediate symbols are decoded, the source 
+		// frames being the first nPackets of them
+		int symbols = (flags & EncodedFrame.FLAG_PRECODE) != 0 ? Precode.symbolCount(nPackets) : nPackets;
+		if (output != null) {
+			sink = openSink();
+		}
+		graph = new TannerGraph(symbols, nPackets, sink);
+		graph.setPool(bufferPool);
+		rawFrames = graph.getSymbols();
+		solver = new InactivationSolver(symbols, nPackets);
+		synchronized (progress) {
+			ready = new long[(nPackets + 63) >>> 6];
+			progress.notifyAll();
+		}
+		if ((flags & EncodedFrame.FLAG_PRECODE) != 0) {
+			for (int[] check : new Precode(nPackets).getConstraints()) {
+				// The XOR of all symbols of a check is 0
+				graph.add(check, new byte[frameSize]);
+			}
+			publish();
+		}
+		initialized = true; // Publishes all of the above to the receiving threads
+	}
+	
+	/**
+	 * Initialize the decoder for a single source block of an object, see 
+	 * {@code SourceBlocks}. Frames of other blocks will be ignored
+	 * @param nonce
+	 * @param objectSize Size of the whole object
+	 * @param frameSize
+	 * @param flags {@code FLAG_BLOCK} is always added
+	 * @param block
+	 * @param blockCount
+	 */
+	public synchronized void initBlock(long nonce, long objectSize, int frameSize, int flags, int block, int blockCount) {
+		if (initialized) {
+			return;
+		}
+		SourceBlocks blocks = new SourceBlocks(objectSize, frameSize, blockCount);
+		this.objectSize = objectSize;
+		this.block = block;
+		this.blockCount = blockCount;
+		init(nonce, blocks.getBlockSize(block), blocks.getNPackets(block), frameSize, flags | EncodedFrame.FLAG_BLOCK);
+	}
+	
+	/**
+	 * 
+	 * @return Sink of this stream in the output file, at the position of 
+	 * its block
+	 */
+	private MappedFrameSink openSink() {
+		long position = 0;
+		if ((flags & EncodedFrame.FLAG_BLOCK) != 0) {
+			position = new SourceBlocks(objectSize, frameSize, blockCount).getOffset(block);
+		}
+		try {
+			if (output.size() > objectSize) {
+				output.truncate(objectSize); // Left over from an older file
+			}
+			return new MappedFrameSink(output, position, filesize, frameSize);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 	
+	/**
+	 * Decode a frame. Safe to call from several threads at once. Only its 
+	 * header is parsed unless it's useful. Frames whose payload isn't the 
+	 * frame size of the stream, e.g. truncated datagrams, are dropped
+	 * @param encoded
+	 */
 	public void frameReceived(byte[] encoded) {
-		frameReceived(new DefaultEncodedFrame(encoded));
+		if (WireFormat.isV2(encoded)) {
+			packetReceived(ByteBuffer.wrap(encoded));
+			return;
+		}
+		if (encoded.length < EncodedFrame.HEADER_SIZE) {
+			return;
+		}
+		int frameFlags = DefaultEncodedFrame.deserializeFlags(encoded);
+		int headerSize = EncodedFrame.headerSize(frameFlags);
+		if (encoded.length < headerSize) {
+			return; // Truncated block header
+		}
+		if (!initialized) {
+			init(new DefaultEncodedFrame(encoded));
+		}
+		if (encoded.length - headerSize != frameSize) {
+			return; // Truncated or not a frame of this stream
+		}
+		int[] neighbors = filter(
+				DefaultEncodedFrame.deserializeNonce(encoded), 
+				frameFlags, 
+				(frameFlags & EncodedFrame.FLAG_BLOCK) != 0 ? DefaultEncodedFrame.deserializeBlock(encoded) : 0, 
+				DefaultEncodedFrame.deserializeIndex(encoded));
+		if (neighbors != null) {
+			byte[] payload = newPayload(frameSize);
+			System.arraycopy(encoded, headerSize, payload, 0, payload.length);
+			queue.offer(new Received(neighbors, payload));
+			drain();
+		}
 	}
 	
-	public void frameReceived(DefaultEncodedFrame frame) {
+	/**
+	 * Decode a frame from the position to the limit of a buffer, e.g. the 
+	 * direct buffer a datagram was received into. Only its header is read 
+	 * unless it's useful. The buffer is neither kept nor moved, so it can 
+	 * be reused as soon as this returns. Safe to call from several threads 
+	 * at once. Frames of the wrong size are dropped like 
+	 * {@link #frameReceived(byte[])} does
+	 * @param encoded
+	 */
+	public void frameReceived(ByteBuffer encoded) {
+		if (WireFormat.isV2(encoded)) {
+			packetReceived(encoded);
+			return;
+		}
+		if (encoded.remaining() < EncodedFrame.HEADER_SIZE) {
+			return;
+		}
+		int frameFlags = BufferEncodedFrame.readFlags(encoded);
+		int headerSize = EncodedFrame.headerSize(frameFlags);
+		if (encoded.remaining() < headerSize) {
+			return; // Truncated block header
+		}
+		if (!initialized) {
+			init(new BufferEncodedFrame(encoded));
+		}
+		if (encoded.remaining() - headerSize != frameSize) {
+			return; // Truncated or not a frame of this stream
+		}
+		int[] neighbors = filter(
+				BufferEncodedFrame.readNonce(encoded), 
+				frameFlags, 
+				(frameFlags & EncodedFrame.FLAG_BLOCK) != 0 ? BufferEncodedFrame.readBlock(encoded) : 0, 
+				BufferEncodedFrame.readIndex(encoded));
+		if (neighbors != null) {
+			byte[] payload = newPayload(frameSize);
+			encoded.get(encoded.position() + headerSize, payload);
+			queue.offer(new Received(neighbors, payload));
+			drain();
+		}
+	}
+	
+	/**
+	 * Decode a frame. Safe to call from several threads at once. Its payload 
+	 * is taken over, with a {@code BufferPool} it goes to the pool once used
+	 * @param frame
+	 */
+	public void frameReceived(EncodedFrame frame) {
 		if (!initialized) {
 			init(frame);
 		}
-		if (nonce != frame.getNonce()) {
-			// this frame is not what we want at all... Either throw an exception, or silently discard it 
+		if (frame.getData().length != frameSize) {
+			return;
+		}
+		int[] neighbors = filter(frame.getNonce(), frame.getFlags(), frame.getBlock(), frame.getIndex());
+		if (neighbors != null) {
+			queue.offer(new Received(neighbors, frame.getData()));
+			drain();
+		}
+	}
+	
+	/**
+	 * Decode a v2 packet, all its frames are handed over to the peeling core 
+	 * at once
+	 * @param packet From its position to its limit, not moved
+	 */
+	private void packetReceived(ByteBuffer packet) {
+		if (WireFormat.type(packet) == WireFormat.TYPE_ANNOUNCE) {
+			WireFormat.Announce a = WireFormat.Announce.read(packet);
+			if (a == null) {
+				corrupted.increment();
+			} else if (!initialized && (a.flags & EncodedFrame.FLAG_BLOCK) == 0) {
+				// The block of a split object is only known by its BlockDecoder
+				init(a.nonce, a.objectSize, calcNumPacket(a.objectSize, a.frameSize), a.frameSize, a.flags);
+			}
 			return;
 		}
+		if (!initialized || WireFormat.session(packet) != session) {
+			return; // Not announced yet, or another stream
+		}
+		WireFormat.FrameReader reader = new WireFormat.FrameReader(packet, flags, frameSize);
+		boolean any = false;
+		while (reader.next()) {
+			any |= offer(reader);
+		}
+		if (reader.isCorrupted()) {
+			corrupted.increment();
+		}
+		if (any) {
+			drain();
+		}
+	}
+	
+	/**
+	 * Decode the current frame of a v2 packet
+	 * @param reader Of a packet of this session
+	 */
+	void frameReceived(WireFormat.FrameReader reader) {
+		if (offer(reader)) {
+			drain();
+		}
+	}
+	
+	/**
+	 * Hand the current frame of a v2 packet over to the peeling core, 
+	 * without running it
+	 * @param reader
+	 * @return false if the frame was discarded
+	 */
+	private boolean offer(WireFormat.FrameReader reader) {
+		int[] neighbors = filter(nonce, flags, reader.getBlock(), reader.getIndex());
+		if (neighbors == null) {
+			return false;
+		}
+		byte[] payload = newPayload(frameSize);
+		reader.getPayload(payload);
+		queue.offer(new Received(neighbors, payload));
+		return true;
+	}
+	
+	/**
+	 * 
+	 * @return Number of v2 frames and announces dropped as their checksum 
+	 * didn't match. Frames following a corrupted one in the same packet are 
+	 * dropped with it
+	 */
+	public long getCorruptedCount() {
+		return corrupted.sum();
+	}
+	
+	/**
+	 * 
+	 * @return Number of XOR of payloads done by inactivation decoding, on 
+	 * top of the ones peeling does
+	 */
+	public long getSolveXorCount() {
+		return solveXors;
+	}
+	
+	/**
+	 * Check the header of a frame received
+	 * @param frameNonce
+	 * @param frameFlags
+	 * @param frameBlock
+	 * @param index
+	 * @return The neighbors of the frame, or null if it should be discarded
+	 */
+	private int[] filter(long frameNonce, int frameFlags, int frameBlock, long index) {
+		if (closed || nonce != frameNonce || flags != frameFlags || block != frameBlock) {
+			// this frame is not what we want at all... Either throw an exception, or silently discard it 
+			return null;
+		}
 		if (DEBUG) {
-			System.out.println("[LT] Frame " + frame.getIndex() + " received");
-		}
-		receivedEncodedFrames.put(frame.getIndex(), new WeakReference(frame));
-		frame.received(random); // Initialize the frame
-		// Check if it can be decoded / discarded before further processing
-		for (int i : frame.getNeighbors()) {
-			if (rawFrames[i] != null) { // Available 
-				frame.neighborAvailable(i);
-			} 
-		}
-		if (frame.shouldDiscard()) {
-			// discard
-		} else if (frame.readyToDecode()) {
-			decodeFrame(frame);
-		} else { // Need to wait
-			for (int i : frame.getNeighbors()) {
-				if (rawFrames[i] != null) continue;
-				waitingRawFrameList.put(i, frame);
+			System.out.println("[LT] Frame " + index + " received");
+		}
+		// Neighbors are only defined for int indexes
+		if (index < 0 || index > Integer.MAX_VALUE || finished()) {
+			return null;
+		}
+		if (!seen.add((int) index)) {
+			return null; // Duplicate
+		}
+		int[] neighbors = random.get((int) index);
+		if (neighbors == null) {
+			return null; // Closed meanwhile
+		}
+		return allKnown(neighbors) ? null : neighbors;
+	}
+	
+	/**
+	 * 
+	 * @param neighbors
+	 * @return true if all symbols are decoded already, or the decoder is 
+	 * closed. Read without the core lock, so it can miss symbols just 
+	 * decoded, never the opposite
+	 */
+	private boolean allKnown(int[] neighbors) {
+		byte[][] frames = rawFrames;
+		if (frames == null) {
+			return true; // Closed meanwhile
+		}
+		for (int i : neighbors) {
+			if (frames[i] == null) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Run the peeling core on the queued frames, unless another thread is 
+	 * already running it. The thread holding the lock checks the queue 
+	 * again after unlocking, so no frame is left behind
+	 */
+	private void drain() {
+		do {
+			if (!core.tryLock()) {
+				return; // Our frames will be taken by the thread running the core
+			}
+			try {
+				Received r;
+				while ((r = queue.poll()) != null) {
+					receivedCount++;
+					if (!finished() && !closed) {
+						graph.add(r.neighbors, r.payload);
+						publish();
+					} else {
+						graph.recycle(r.payload);
+					}
+				}
+				if (closed) {
+					return; // Offered by a thread that was past filter() when closed
+				}
+				// Less than nPackets frames can never be enough, don't even try, 
+				// nor before enough frames came to make up for the last deficit
+				if (inactivation && receivedCount >= Math.max(nPackets, solveAfter) && !finished()) {
+					solve();
+				}
+				if (finished() && graph.getPendingCount() > 0) {
+					graph.clearFrames(); // Whatever is still waiting isn't needed
+				}
+			} finally {
+				core.unlock();
 			}
+		} while (!queue.isEmpty());
+	}
+	
+	/**
+	 * Use another degree distribution than {@code CodeParameters.DEFAULT}, 
+	 * the same as the encoder's. Must be set before the first frame. A 
+	 * stream with {@code FLAG_TUNED} uses its row of {@code ParameterTable} 
+	 * instead
+	 * @param parameters
+	 */
+	public synchronized void setParameters(CodeParameters parameters) {
+		if (initialized) {
+			throw new IllegalStateException("Already initialized");
+		}
+		this.parameters = parameters;
+	}
+	
+	/**
+	 * Copy the payloads of frames received into arrays of a pool, and give 
+	 * them back when they are not needed any more, see {@code BufferPool}. 
+	 * Must be set before the first frame. Null to allocate them, the default
+	 * @param bufferPool Of the frame size of the stream
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		if (initialized) {
+			throw new IllegalStateException("Already initialized");
+		}
+		this.bufferPool = bufferPool;
+	}
+	
+	/**
+	 * 
+	 * @param length
+	 * @return An array for a payload, from the pool if it has the right size
+	 */
+	private byte[] newPayload(int length) {
+		BufferPool bp = bufferPool;
+		return bp != null && bp.getFrameSize() == length ? bp.acquire() : new byte[length];
+	}
+	
+	/**
+	 * Enable or disable the inactivation decoding fallback, enabled by default. 
+	 * When disabled, only peeling is done, and the decoder needs more frames
+	 * @param enabled
+	 */
+	public void setInactivationDecoding(boolean enabled) {
+		this.inactivation = enabled;
+	}
+	
+	/**
+	 * Try to finish decoding with the frames already received, by inactivation 
+	 * decoding of the frames peeling couldn't use. This is done automatically 
+	 * after each frame once peeling stalls, unless disabled with 
+	 * {@link #setInactivationDecoding(boolean)}. See {@code InactivationSolver}
+	 * @return true if decoding is finished
+	 */
+	public boolean solve() {
+		if (!initialized || closed || finished()) {
+			return finished();
+		}
+		core.lock();
+		try {
+			return solveLocked();
+		} finally {
+			core.unlock();
+		}
+	}
+	
+	private boolean solveLocked() {
+		if (finished() || closed) {
+			return finished(); // The graph is released once closed
+		}
+		int nRows = graph.getPendingCount();
+		int unknownRequired = nPackets - graph.getDecodedRequired();
+		if (nRows < unknownRequired) {
+			solveAfter = receivedCount + unknownRequired - nRows;
+			return false;
+		}
+		int[] slots = new int[nRows];
+		int[][] rows = new int[nRows][];
+		int r = 0;
+		for (int slot = 0; slot < graph.getSlotCount(); slot++) {
+			if (!graph.isPending(slot)) continue;
+			int[] neighbors = graph.getNeighbors(slot);
+			int[] unknown = new int[neighbors.length];
+			int n = 0;
+			for (int i : neighbors) {
+				if (rawFrames[i] == null) unknown[n++] = i;
+			}
+			slots[r] = slot;
+			rows[r++] = Arrays.copyOf(unknown, n);
+		}
+		// Dry run first, payloads are only touched if it works
+		if (!solver.solve(rows, nRows, null, null, unknownRequired)) {
+			// Each frame adds one equation at most
+			solveAfter = receivedCount + solver.getDeficit();
+			return false;
+		}
+		byte[][] payloads = new byte[nRows][];
+		int[] known = new int[0];
+		for (r = 0; r < nRows; r++) {
+			byte[] pending = graph.getPayload(slots[r]);
+			byte[] data = newPayload(pending.length);
+			System.arraycopy(pending, 0, data, 0, data.length);
+			int[] neighbors = graph.getNeighbors(slots[r]);
+			if (known.length < neighbors.length) {
+				known = new int[neighbors.length];
+			}
+			int n = 0;
+			for (int i : neighbors) {
+				if (rawFrames[i] != null) known[n++] = i;
+			}
+			graph.xorKnown(data, known, 0, n);
+			payloads[r] = data;
+		}
+		byte[][] solved = new byte[rawFrames.length][];
+		solver.solve(rows, nRows, payloads, solved, unknownRequired);
+		solveXors += solver.getXorCount();
+		if (bufferPool != null) {
+			// The copies that didn't end up as a symbol aren't needed
+			Set<byte[]> used = Collections.newSetFromMap(new IdentityHashMap<>());
+			for (byte[] b : solved) {
+				if (b != null) used.add(b);
+			}
+			for (r = 0; r < nRows; r++) {
+				if (!used.contains(payloads[r])) graph.recycle(payloads[r]);
+			}
+		}
+		graph.solved(solved);
+		publish();
+		if (DEBUG) {
+			System.out.println("[LT] " + unknownRequired + " raw frames solved by inactivation decoding");
+		}
+		return finished();
+	}
+	
+	/**
+	 * Mark the source frames just decoded as ready, and wake up the readers 
+	 * waiting for them
+	 */
+	private void publish() {
+		int n = graph.getDecodedLogSize();
+		if (n == 0) {
+			return;
+		}
+		int[] log = graph.getDecodedLog();
+		decodedCount = graph.getDecodedRequired();
+		synchronized (progress) {
+			for (int i = 0; i < n; i++) {
+				ready[log[i] >>> 6] |= 1l << log[i];
+			}
+			for (int i = 0; i < nAwaited; i++) {
+				if (isReady(awaited[i])) {
+					progress.notifyAll();
+					break;
+				}
+			}
+		}
+		graph.clearDecodedLog();
+	}
+	
+	/**
+	 * Wait until the decoder is initialized
+	 * @param nanos Time to wait, {@code Long.MAX_VALUE} to wait forever
+	 * @return false if it's still not initialized when the time is up
+	 * @throws InterruptedException
+	 */
+	boolean awaitInit(long nanos) throws InterruptedException {
+		synchronized (progress) {
+			return await(-1, nanos);
+		}
+	}
+	
+	/**
+	 * Wait until a source frame is decoded. Safe to call from any thread
+	 * @param i Index of the source frame
+	 * @param nanos Time to wait, {@code Long.MAX_VALUE} to wait forever
+	 * @return false if it's still not decoded when the time is up
+	 * @throws InterruptedException
+	 */
+	boolean awaitFrame(int i, long nanos) throws InterruptedException {
+		synchronized (progress) {
+			return await(i, nanos);
+		}
+	}
+	
+	/**
+	 * Copy part of a decoded source frame, at the position of dst which is 
+	 * then moved forward. Safe to call from any thread once 
+	 * {@link #awaitFrame(int, long)} returned true for the frame
+	 * @param i
+	 * @param offset In the frame
+	 * @param dst
+	 * @param len
+	 */
+	void getFrame(int i, int offset, ByteBuffer dst, int len) {
+		checkOpen();
+		if (sink != null) {
+			sink.get(i, offset, dst, len);
+		} else {
+			dst.put(rawFrames[i], offset, len);
+		}
+	}
+	
+	/**
+	 * 
+	 * @param i Index of a source frame, or -1 for the initialization only
+	 * @param nanos
+	 * @return
+	 * @throws InterruptedException
+	 */
+	private boolean await(int i, long nanos) throws InterruptedException {
+		long end = System.nanoTime() + nanos;
+		if (ready != null && (i < 0 || isReady(i))) {
+			return true;
 		}
-		return;
+		if (nAwaited == awaited.length) {
+			awaited = Arrays.copyOf(awaited, nAwaited * 2);
+		}
+		awaited[nAwaited++] = i;
+		try {
+			while (ready == null || (i >= 0 && !isReady(i))) {
+				if (nanos == Long.MAX_VALUE) {
+					progress.wait();
+					continue;
+				}
+				long left = end - System.nanoTime();
+				if (left <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(progress, left);
+			}
+			return true;
+		} finally {
+			for (int j = 0; j < nAwaited; j++) {
+				if (awaited[j] == i) {
+					awaited[j] = awaited[--nAwaited];
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Must hold {@link #progress}
+	 */
+	private boolean isReady(int i) {
+		return i >= 0 && (ready[i >>> 6] & (1l << i)) != 0;
+	}
+	
+	/**
+	 * Check if a source frame is decoded, without waiting. Safe to call from 
+	 * any thread
+	 * @param i Index of the source frame
+	 * @return
+	 */
+	public boolean isFrameDecoded(int i) {
+		synchronized (progress) {
+			return ready != null && isReady(i);
+		}
+	}
+	
+	/**
+	 * A view of the decoded data that can be read while decoding is still 
+	 * going on, see {@code DecodedChannel}
+	 * @param timeout How long a read waits for missing data
+	 * @param unit
+	 * @return
+	 */
+	public DecodedChannel getDecodedChannel(long timeout, TimeUnit unit) {
+		return new DecodedChannel(this, timeout, unit);
+	}
+	
+	/**
+	 * Same as {@link #getDecodedAsStream()}, but readable before decoding is 
+	 * finished: reads block until the data is decoded, see 
+	 * {@code DecodedChannel}
+	 * @param timeout How long a read waits for missing data
+	 * @param unit
+	 * @return
+	 */
+	public InputStream getDecodedAsStream(long timeout, TimeUnit unit) {
+		return Channels.newInputStream(getDecodedChannel(timeout, unit));
 	}
 	
 	public int numFrameDecoded() {
@@ -101,15 +809,25 @@ public class Decoder extends AbstractLT implements AutoCloseable {
 	}
 	
 	public boolean finished() {
-		return decodedCount == rawFrames.length;
+		return initialized && decodedCount == nPackets;
 	}
 
 	public byte[] getDecoded() {
+		checkOpen();
 		if (!finished()) {
 			throw new RuntimeException("Not finished decoding");
 		}
+		if (filesize > Integer.MAX_VALUE) {
+			throw new RuntimeException("Object too large for a byte[], use getDecodedAsStream()");
+		}
 		byte[] b = new byte[(int) filesize];
-		int ll = rawFrames.length - 1;
+		int ll = nPackets - 1;
+		if (sink != null) {
+			for (int i = 0; i <= ll; i++) {
+				sink.get(i, b, i * frameSize);
+			}
+			return b;
+		}
 		for (int i = 0; i < ll; i++) {
 			System.arraycopy(rawFrames[i], 0, b, i * frameSize, frameSize);
 		}
@@ -118,9 +836,14 @@ public class Decoder extends AbstractLT implements AutoCloseable {
 	}
 	
 	public InputStream getDecodedAsStream() {
+		checkOpen();
 		if (!finished()) {
 			throw new RuntimeException("Not finished decoding");
 		}
+		if (sink != null || filesize > Integer.MAX_VALUE) {
+			// Everything is decoded, it never waits
+			return getDecodedAsStream(0, TimeUnit.NANOSECONDS);
+		}
 		InputStream in = new ByteArrArrayInputStream(rawFrames, (int) filesize);
 		return in;
 	}
@@ -130,130 +853,65 @@ public class Decoder extends AbstractLT implements AutoCloseable {
 	 * @return boolean[] with respective location set to true if that frame was received
 	 */
 	public boolean[] checkFramesReceived() {
-		boolean[] arr = new boolean[rawFrames.length];
-		for (int i = 0; i < rawFrames.length; i++) {
+		checkOpen();
+		boolean[] arr = new boolean[nPackets];
+		for (int i = 0; i < nPackets; i++) {
 			arr[i] = rawFrames[i] != null;
 		}
 		return arr;
 	}
 	
-	private void decodeFrame(DefaultEncodedFrame frame) {
-		// It's possible that a new frame is available between queuing 
-		// for decode and actual decoding
-		if (frame.shouldDiscard()) {
-			// Remove from list if ever happens. This should happen at most once
-			waitingRawFrameList.remove(frame, frame.getNeighbors());
-			return;
-		}
-		int[] neighbors = frame.getNeighbors();	
-		byte[] data = frame.getData();
-		int missing = -1;
-		for (int i : neighbors) { 
-			// Normally only one neighbor is missing, so if the neighbor is not 
-			// missing, XOR to remove neighborhood
-			if (rawFrames[i] != null) {
-				DefaultEncodedFrame.xor(data, rawFrames[i]);
-			} else { // This frame is not available yet, found the missing frame
-				missing = i;
-			}
-		}
-		if (missing == -1) { // shouldn't happen, this frame should've been discarded
-			assert false;
-		} else {
-			assert rawFrames[missing] == null;
-			rawFrames[missing] = data;
-			decodedCount++;
-			notifyNewRawFrame(missing);
-		}
-		waitingRawFrameList.remove(frame, neighbors);
-		if (DEBUG) {
-			System.out.println("[LT] Raw frame " + missing + " decoded");
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Decoder closed");
 		}
 	}
 	
-	private void notifyNewRawFrame(int idx) {
-		Iterator<DefaultEncodedFrame> itr = waitingRawFrameList.get(idx);
-		List<DefaultEncodedFrame> toRemove = new ArrayList<>();
-		List<DefaultEncodedFrame> toDecode = new ArrayList<>();
-		while (itr.hasNext()) {
-			DefaultEncodedFrame frame = itr.next();
-			frame.neighborAvailable(idx);
-			if (frame.shouldDiscard()) {
-				toRemove.add(frame);
-			} else if (frame.readyToDecode()) {
-				toDecode.add(frame);
-			} // else continue;
-		}
-		// Separate checking vs performing list operation to avoid concurrent modification
-		for (DefaultEncodedFrame f : toRemove) {
-			waitingRawFrameList.remove(f, f.getNeighbors());
-		}
-		for (DefaultEncodedFrame f : toDecode) {
-			decodeFrame(f); // Theoretical potential for stack overflow here...
-		}
-	}
-
 	/**
-	 * A helper class to store the frames that are waiting for other frames before 
-	 * they can be decoded
-	 * @author R Wang
-	 *
+	 * Release the decoding state, decoded frames kept on the heap included, 
+	 * so read them before. Frames received from then on, or still being 
+	 * received by other threads, are dropped
 	 */
-	@SuppressWarnings("rawtypes")
-	class ArrList {
-		final LinkedList[] arr;
-		public ArrList(int size) {
-			arr = new LinkedList[size];
-		}
-		
-		@SuppressWarnings("unchecked")
-		void put(int idx, DefaultEncodedFrame frame) {
-			if (arr[idx] == null) {
-				arr[idx] = new LinkedList<DefaultEncodedFrame>();
-			}
-			arr[idx].add(frame);
-		}
-		
-		void finished(int idx) {
-			arr[idx] = null;
-		}
-		
-		void remove(DefaultEncodedFrame frame, int ... ints) {
-			for (int i : ints) {
-				if (arr[i] != null) {
-					arr[i].remove(frame);
+	@Override
+	public void close() {
+		closed = true;
+		super.close();
+		core.lock();
+		try {
+			Received r;
+			while ((r = queue.poll()) != null) {
+				if (graph != null) {
+					graph.recycle(r.payload);
 				}
 			}
-		}
-		
-		@SuppressWarnings("unchecked")
-		Iterator<DefaultEncodedFrame> get(int idx) {
-			if (arr[idx] == null) {
-				return new Iterator<DefaultEncodedFrame>() {
-
-					@Override
-					public boolean hasNext() {
-						return false;
-					}
-
-					@Override
-					public DefaultEncodedFrame next() {
-						return null;
-					}
-
-					@Override
-					public void remove() {						
-					}};
-			} else {
-				return (Iterator<DefaultEncodedFrame>) arr[idx].iterator();
+			if (graph != null) {
+				graph.close();
+				rawFrames = null;
+			}
+			if (sink != null) {
+				sink.close();
 			}
+			if (ownOutput != null) {
+				ownOutput.close();
+				ownOutput = null;
+			}
+		} catch (IOException e) {
+			// Nothing we can do here
+		} finally {
+			core.unlock();
 		}
 	}
-
-	@Override
-	public void close() {
-		super.close();
-		receivedEncodedFrames = null;
-		waitingRawFrameList = null;
+	
+	/**
+	 * A frame handed over to the peeling core
+	 */
+	private static class Received {
+		final int[] neighbors;
+		final byte[] payload;
+		
+		Received(int[] neighbors, byte[] payload) {
+			this.neighbors = neighbors;
+			this.payload = payload;
+		}
 	}
 }
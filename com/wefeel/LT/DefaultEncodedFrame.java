@@ -1,5 +1,6 @@
 package com.wefeel.LT;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashSet;
 import com.wefeel.LT.Random.NeighborGenerator;
@@ -7,46 +8,111 @@ import com.wefeel.LT.Random.NeighborGenerator;
 public class DefaultEncodedFrame extends EncodedFrame {
 
 	private boolean inited;
+	/** Where the payload comes from, if it should go back there */
+	private BufferPool pool;
 	
 	public DefaultEncodedFrame(byte[] encodedData) {
 		super(deserializeNonce(encodedData), 
 				deserializeFilesize(encodedData),
 				deserializeIndex(encodedData), 
 				deserializeData(encodedData));
+		flags = deserializeFlags(encodedData);
+		if ((flags & FLAG_BLOCK) != 0) {
+			block = deserializeBlock(encodedData);
+			blockCount = deserializeBlockCount(encodedData);
+		}
 	}
 
 	public DefaultEncodedFrame(long nonce, long filesize, long index, byte[] data, int[] neighbors) {
 		super(nonce, filesize, index, data, neighbors);
 	}
 
+	public DefaultEncodedFrame(long nonce, long filesize, int flags, long index, byte[] data, int[] neighbors) {
+		super(nonce, filesize, flags, index, data, neighbors);
+	}
+
+	public DefaultEncodedFrame(long nonce, long filesize, int flags, int block, int blockCount, long index, byte[] data, int[] neighbors) {
+		super(nonce, filesize, flags, block, blockCount, index, data, neighbors);
+	}
+
+	/**
+	 * Payload taken from a pool, see {@link #recycle()}
+	 */
+	void setPool(BufferPool pool) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * Give the payload back to the {@code BufferPool} of the encoder that 
+	 * generated this frame, if it has one. The frame must not be used after, 
+	 * nor given to a {@code Decoder} before, as the decoder takes the payload 
+	 * over
+	 */
+	public void recycle() {
+		if (pool != null) {
+			pool.release(data);
+			pool = null;
+		}
+	}
+	
 	@Override
 	public byte[] toByteArr() {
-		byte[] encoded = new byte[data.length + 20];
+		int headerSize = headerSize(flags);
+		byte[] encoded = new byte[data.length + headerSize];
+		writeHeader(ByteBuffer.wrap(encoded), 0, nonce, filesize, flags, block, blockCount, index);
+		System.arraycopy(data, 0, encoded, headerSize, data.length);
+		return encoded;
+	}
+	
+	/**
+	 * Write the {@value #HEADER_SIZE} bytes header of a frame at an absolute 
+	 * index of the buffer, without changing its position. 
+	 * Everything is big endian whatever the order of the buffer
+	 * @param out
+	 * @param at
+	 * @param nonce
+	 * @param filesize 48 bits
+	 * @param flags 8 bits
+	 * @param index 40 bits
+	 */
+	public static void writeHeader(ByteBuffer out, int at, long nonce, long filesize, int flags, long index) {
+		writeHeader(out, at, nonce, filesize, flags, 0, 1, index);
+	}
+	
+	/**
+	 * Write the header of a frame, {@link #headerSize(int)} bytes, at an 
+	 * absolute index of the buffer, without changing its position. 
+	 * Everything is big endian whatever the order of the buffer
+	 * @param out
+	 * @param at
+	 * @param nonce
+	 * @param filesize 48 bits
+	 * @param flags 8 bits
+	 * @param block 16 bits, only written if {@code FLAG_BLOCK} is set
+	 * @param blockCount 16 bits, only written if {@code FLAG_BLOCK} is set
+	 * @param index 40 bits
+	 */
+	public static void writeHeader(ByteBuffer out, int at, long nonce, long filesize, int flags, int block, int blockCount, long index) {
 		// Nonce
-		encoded[0] = (byte) ((nonce >> 56) & 0xFF);
-		encoded[1] = (byte) ((nonce >> 48) & 0xFF);
-		encoded[2] = (byte) ((nonce >> 40) & 0xFF);
-		encoded[3] = (byte) ((nonce >> 32) & 0xFF);
-		encoded[4] = (byte) ((nonce >> 24) & 0xFF);
-		encoded[5] = (byte) ((nonce >> 16) & 0xFF);
-		encoded[6] = (byte) ((nonce >> 8) & 0xFF);
-		encoded[7] = (byte) ((nonce) & 0xFF);
+		for (int i = 0; i < 8; i++) {
+			out.put(at + i, (byte) (nonce >> (56 - 8 * i)));
+		}
 		// Filesize
-		encoded[8] = (byte) ((filesize >> 40) & 0xFF);
-		encoded[9] = (byte) ((filesize >> 32) & 0xFF);
-		encoded[10] = (byte) ((filesize >> 24) & 0xFF);
-		encoded[11] = (byte) ((filesize >> 16) & 0xFF);
-		encoded[12] = (byte) ((filesize >> 8) & 0xFF);
-		encoded[13] = (byte) ((filesize) & 0xFF);
+		for (int i = 0; i < 6; i++) {
+			out.put(at + 8 + i, (byte) (filesize >> (40 - 8 * i)));
+		}
+		// Flags
+		out.put(at + 14, (byte) flags);
 		// Index
-		encoded[14] = (byte) ((index >> 40) & 0xFF);
-		encoded[15] = (byte) ((index >> 32) & 0xFF);
-		encoded[16] = (byte) ((index >> 24) & 0xFF);
-		encoded[17] = (byte) ((index >> 16) & 0xFF);
-		encoded[18] = (byte) ((index >> 8) & 0xFF);
-		encoded[19] = (byte) ((index) & 0xFF);
-		System.arraycopy(data, 0, encoded, 20, data.length);
-		return encoded;
+		for (int i = 0; i < 5; i++) {
+			out.put(at + 15 + i, (byte) (index >> (32 - 8 * i)));
+		}
+		if ((flags & FLAG_BLOCK) != 0) {
+			out.put(at + 20, (byte) (block >> 8));
+			out.put(at + 21, (byte) block);
+			out.put(at + 22, (byte) (blockCount >> 8));
+			out.put(at + 23, (byte) blockCount);
+		}
 	}
 	
 	/**
@@ -55,7 +121,16 @@ public class DefaultEncodedFrame extends EncodedFrame {
 	 * @param ng
 	 */
 	public void received(NeighborGenerator ng) {
-		this.intendedNeighbors = ng.get((int) this.index);
+		received(ng.get((int) this.index));
+	}
+	
+	/**
+	 * Same as {@link #received(NeighborGenerator)} with neighbors known in 
+	 * advance, e.g. the parity checks of a {@code Precode}
+	 * @param intendedNeighbors
+	 */
+	public void received(int[] intendedNeighbors) {
+		this.intendedNeighbors = intendedNeighbors;
 		if (neighbors == null) neighbors = new HashSet<>();
 		inited = true;
 	}
@@ -74,7 +149,7 @@ public class DefaultEncodedFrame extends EncodedFrame {
 		// -> after XOR all other neighbors it becomes the remaining one
 	}
 	
-	private static long deserializeNonce(byte[] encodedData) {
+	static long deserializeNonce(byte[] encodedData) {
 		return ((encodedData[0] & 0xFFl) << 56) 
 				| ((encodedData[1] & 0xFFl) << 48) 
 				| ((encodedData[2] & 0xFFl) << 40) 
@@ -94,17 +169,28 @@ public class DefaultEncodedFrame extends EncodedFrame {
 				| (encodedData[13] & 0xFFl);
 	}
 	
-	private static long deserializeIndex(byte[] encodedData) {
-		return ((encodedData[14] & 0xFFl) << 40) 
-				| ((encodedData[15] & 0xFFl) << 32) 
+	static int deserializeFlags(byte[] encodedData) {
+		return encodedData[14] & 0xFF;
+	}
+	
+	static long deserializeIndex(byte[] encodedData) {
+		return ((encodedData[15] & 0xFFl) << 32) 
 				| ((encodedData[16] & 0xFFl) << 24)
 				| ((encodedData[17] & 0xFFl) << 16)
 				| ((encodedData[18] & 0xFFl) << 8)
 				| (encodedData[19] & 0xFFl);
 	}
 	
-	private static byte[] deserializeData(byte[] encodedData) {
-		return Arrays.copyOfRange(encodedData, 20, encodedData.length);
+	static int deserializeBlock(byte[] encodedData) {
+		return ((encodedData[20] & 0xFF) << 8) | (encodedData[21] & 0xFF);
+	}
+	
+	static int deserializeBlockCount(byte[] encodedData) {
+		return ((encodedData[22] & 0xFF) << 8) | (encodedData[23] & 0xFF);
+	}
+	
+	static byte[] deserializeData(byte[] encodedData) {
+		return Arrays.copyOfRange(encodedData, headerSize(deserializeFlags(encodedData)), encodedData.length);
 	}
 	
 	/**
@@ -116,8 +202,6 @@ public class DefaultEncodedFrame extends EncodedFrame {
 	}
 	
 	public static void xor(byte[] target, byte[] anotherArr) {
-		for (int i = 0; i < target.length; i++) {
-			target[i] ^= anotherArr[i];
-		}
+		XorEngine.get().xor(target, anotherArr);
 	}
 }
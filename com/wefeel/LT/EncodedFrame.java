@@ -4,12 +4,43 @@ import java.util.Set;
 
 public abstract class EncodedFrame {
 	
+	/** Bytes before the payload in a serialized frame: nonce, filesize, flags and index */
+	public static final int HEADER_SIZE = 20;
+	/** Extra header bytes when {@link #FLAG_BLOCK} is set: 16 bit block number and 16 bit block count */
+	public static final int BLOCK_HEADER_SIZE = 4;
+	
+	/** The first nPackets indexes are the source frames, see {@code NeighborGenerator} */
+	public static final int FLAG_SYSTEMATIC = 0x01;
+	/** The object is split into source blocks, each coded on its own, see {@code BlockEncoder} */
+	public static final int FLAG_BLOCK = 0x02;
+	/** Neighbors come from the stateless counter stream, see {@code NeighborGenerator.Version} */
+	public static final int FLAG_COUNTER = 0x04;
+	/** The LT stage covers the intermediate symbols of a {@code Precode} instead of the source frames */
+	public static final int FLAG_PRECODE = 0x08;
+	/** The degree distribution is a row of {@code ParameterTable}, whose ID is in {@link #PARAMETER_ID_MASK} */
+	public static final int FLAG_TUNED = 0x10;
+	/** Top 3 bits of the flags: ID of the {@code ParameterTable} row if {@link #FLAG_TUNED} is set */
+	public static final int PARAMETER_ID_MASK = 0xE0;
+	public static final int PARAMETER_ID_SHIFT = 5;
+	/** All flags known by this version */
+	public static final int KNOWN_FLAGS = FLAG_SYSTEMATIC | FLAG_BLOCK | FLAG_COUNTER | FLAG_PRECODE | FLAG_TUNED | PARAMETER_ID_MASK;
+	
 	/** 64 bit nonce which happens to be the seed used to generate random numbers */
 	protected final long nonce;
 	/** 48 bit filesize should be large enough */
 	protected final long filesize;
-	/** 48 bit index */
+	/** 
+	 * 8 bit flags describing how the stream is encoded. It's sent as the top 
+	 * byte of what used to be a 48 bit index, so it's always 0 for older 
+	 * streams 
+	 */
+	protected int flags;
+	/** 40 bit index */
 	protected final long index;
+	/** Source block this frame belongs to, only sent if {@link #FLAG_BLOCK} is set */
+	protected int block;
+	/** Number of source blocks of the object */
+	protected int blockCount = 1;
 	/** Encoded data stored in this frame */
 	protected final byte[] data;
 	
@@ -27,6 +58,35 @@ public abstract class EncodedFrame {
 		this(nonce, filesize, index, data);
 		this.intendedNeighbors = neighbors;
 	}
+	
+	protected EncodedFrame(long nonce, long filesize, int flags, long index, byte[] data, int[] neighbors) {
+		this(nonce, filesize, index, data, neighbors);
+		this.flags = flags;
+	}
+	
+	protected EncodedFrame(long nonce, long filesize, int flags, int block, int blockCount, long index, byte[] data, int[] neighbors) {
+		this(nonce, filesize, flags, index, data, neighbors);
+		this.block = block;
+		this.blockCount = blockCount;
+	}
+	
+	/**
+	 * 
+	 * @param flags
+	 * @return Number of bytes before the payload of a serialized frame with these flags
+	 */
+	public static int headerSize(int flags) {
+		return (flags & FLAG_BLOCK) != 0 ? HEADER_SIZE + BLOCK_HEADER_SIZE : HEADER_SIZE;
+	}
+	
+	/**
+	 * 
+	 * @param flags
+	 * @return ID of the {@code ParameterTable} row of a stream with {@link #FLAG_TUNED}
+	 */
+	public static int parameterId(int flags) {
+		return (flags & PARAMETER_ID_MASK) >>> PARAMETER_ID_SHIFT;
+	}
 		
 	public byte[] getData() {
 		return data;
@@ -48,6 +108,22 @@ public abstract class EncodedFrame {
 		return index;
 	}
 	
+	public int getFlags() {
+		return flags;
+	}
+	
+	public boolean isSystematic() {
+		return (flags & FLAG_SYSTEMATIC) != 0;
+	}
+	
+	public int getBlock() {
+		return block;
+	}
+	
+	public int getBlockCount() {
+		return blockCount;
+	}
+	
 	public long getNonce() {
 		return nonce;
 	}
@@ -2,52 +2,210 @@ package com.wefeel.LT;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.wefeel.LT.Random.NeighborGenerator;
-
+/**
+ * Generate encoded frames from the source data. <br>
+ * <br>
+ * The encoder is thread safe: {@link #next()} can be called from several 
+ * threads at once, each call getting a unique index, and 
+ * {@link #nextBatch(int)} spreads the generation of many frames over a 
+ * {@code ForkJoinPool}. The content of a frame only depends on the nonce 
+ * and its index, so the decoder can't tell how the frames were generated. 
+ * @author R Wang
+ *
+ */
 public class Encoder extends AbstractLT implements Iterator<DefaultEncodedFrame>, AutoCloseable {
 	
-	/** Store the data as an array of frames, each with constant length */
-	private byte[][] data;
+	/** Below this many frames a batch is not split any further */
+	private static final int BATCH_THRESHOLD = 8;
+	
+	/** Source frames, each with constant length */
+	private FrameSource source;
 	
 	private volatile boolean closed;
-	private volatile long idx;
+	private final AtomicLong idx = new AtomicLong();
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	/** Where the payloads of frames come from, null to allocate them */
+	private BufferPool bufferPool;
 
 	public Encoder(byte[] data, int frameSize) {
 		this(data, frameSize, new Random().nextLong());
 	}
 
 	public Encoder(byte[] data, int frameSize, long nonce) {
-		this(frameSize, data.length, nonce);
-		int noFrame = calcNoFrame(data.length, frameSize);
-		this.data = new byte[noFrame][frameSize];
-		noFrame--; // should use a new variable but oh well
-		for (int i = 0; i < noFrame; i++) { // Populate the byte[][]
-			System.arraycopy(data, i * frameSize, this.data[i], 0, frameSize);
-		}
-		// Copy the last frame, which may has fewer bytes than a frame
-		System.arraycopy(data, noFrame * frameSize, this.data[noFrame], 0, data.length - noFrame * frameSize);
+		this(data, frameSize, nonce, 0);
+	}
+
+	/**
+	 * 
+	 * @param data
+	 * @param frameSize
+	 * @param nonce
+	 * @param flags Combination of {@code EncodedFrame.FLAG_*}, e.g. 
+	 * {@code FLAG_SYSTEMATIC} to send the source frames first
+	 */
+	public Encoder(byte[] data, int frameSize, long nonce, int flags) {
+		this(ByteArrFrameSource.of(data, frameSize), nonce, flags);
+	}
+
+	/**
+	 * Encode the content of a file without loading it onto the heap. The
+	 * file is memory mapped, so it can be larger than 2 GiB, and must not
+	 * be modified while the encoder is in use
+	 * @param file
+	 * @param frameSize
+	 * @param nonce
+	 * @throws IOException
+	 */
+	public Encoder(Path file, int frameSize, long nonce) throws IOException {
+		this(file, frameSize, nonce, 0);
+	}
+
+	/**
+	 * Same as {@link #Encoder(Path, int, long)} with flags
+	 * @param file
+	 * @param frameSize
+	 * @param nonce
+	 * @param flags Combination of {@code EncodedFrame.FLAG_*}
+	 * @throws IOException
+	 */
+	public Encoder(Path file, int frameSize, long nonce, int flags) throws IOException {
+		this(new MappedFrameSource(file, frameSize), nonce, flags);
+	}
+
+	/**
+	 * Encode from any source of frames
+	 * @param source
+	 * @param nonce
+	 */
+	public Encoder(FrameSource source, long nonce) {
+		this(source, nonce, 0);
+	}
+
+	/**
+	 * Encode from any source of frames
+	 * @param source
+	 * @param nonce
+	 * @param flags Combination of {@code EncodedFrame.FLAG_*}
+	 */
+	public Encoder(FrameSource source, long nonce, int flags) {
+		this(source.getFrameSize(), source.getFilesize(), nonce, flags);
+		this.source = precode(source, flags);
 	}
 	
-	private Encoder(int frameSize, long fileSize, long nonce) {
+	private Encoder(int frameSize, long fileSize, long nonce, int flags) {
 		this.frameSize = frameSize;
 		this.filesize = fileSize;
+		this.objectSize = fileSize;
 		this.nonce = nonce;
 		nPackets = (int) Math.ceil(((double) fileSize) / frameSize);
-		random = new NeighborGenerator(nonce, calcNoFrame(fileSize, frameSize));
+		this.flags = ParameterTable.tune(flags, nPackets);
+		random = createGenerator(nonce, 0, calcNoFrame(fileSize, frameSize), this.flags, parameters);
+	}
+	
+	/**
+	 * Encoder of a single source block of a larger object, see {@code BlockEncoder}
+	 * @param blockSource Frames of this block only
+	 * @param nonce Nonce of the whole object
+	 * @param flags {@code FLAG_BLOCK} is always added, the parameter ID is 
+	 * kept as is so that all blocks share it
+	 * @param objectSize Size of the whole object
+	 * @param block
+	 * @param blockCount
+	 */
+	Encoder(FrameSource blockSource, long nonce, int flags, long objectSize, int block, int blockCount) {
+		this.frameSize = blockSource.getFrameSize();
+		this.filesize = blockSource.getFilesize();
+		this.objectSize = objectSize;
+		this.nonce = nonce;
+		this.flags = flags | EncodedFrame.FLAG_BLOCK;
+		this.block = block;
+		this.blockCount = blockCount;
+		nPackets = blockSource.getNPackets();
+		this.source = precode(blockSource, flags);
+		random = createGenerator(nonce, block, nPackets, this.flags, parameters);
+	}
+	
+	/**
+	 * 
+	 * @param source
+	 * @param flags
+	 * @return The intermediate symbols of the source if {@code FLAG_PRECODE} 
+	 * is set, else the source itself
+	 */
+	private static FrameSource precode(FrameSource source, int flags) {
+		return (flags & EncodedFrame.FLAG_PRECODE) != 0 ? new PrecodedFrameSource(source) : source;
 	}
 
 	private int calcNoFrame(long totalBytes, int frameSize) {
 		return (int) Math.ceil(totalBytes / (double) (frameSize));
 	}
 
+	/**
+	 *
+	 * @return Source frames, or null if the source is not kept on the heap
+	 */
 	public byte[][] getData() {
-		return data;
+		FrameSource s = getSource();
+		return s instanceof ByteArrFrameSource ? ((ByteArrFrameSource) s).getData() : null;
+	}
+
+	/**
+	 * 
+	 * @return Source frames, without the parity symbols of a precode
+	 */
+	public FrameSource getSource() {
+		return source instanceof PrecodedFrameSource ? ((PrecodedFrameSource) source).getSource() : source;
+	}
+	
+	/**
+	 * Set the pool used by {@link #nextBatch(int)}, the common pool is used 
+	 * by default
+	 * @param pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * Take the payloads of frames from a pool, they are given back with 
+	 * {@link DefaultEncodedFrame#recycle()}. Null to allocate them, the 
+	 * default
+	 * @param bufferPool Of the frame size of this encoder
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		if (bufferPool != null && bufferPool.getFrameSize() != frameSize) {
+			throw new IllegalArgumentException("Pool of " + bufferPool.getFrameSize() + " bytes for frames of " + frameSize);
+		}
+		this.bufferPool = bufferPool;
+	}
+	
+	/**
+	 * Use another degree distribution than {@code CodeParameters.DEFAULT}, 
+	 * the decoder must use the same. Must be set before the first frame, 
+	 * and not on a stream with {@code FLAG_TUNED}
+	 * @param parameters
+	 */
+	public synchronized void setParameters(CodeParameters parameters) {
+		if (idx.get() > 0) {
+			throw new IllegalStateException("Frames already generated");
+		}
+		if ((flags & EncodedFrame.FLAG_TUNED) != 0) {
+			throw new IllegalStateException("Parameters of a tuned stream come from the ParameterTable");
+		}
+		random.close();
+		random = createGenerator(nonce, block, nPackets, flags, parameters);
+		this.parameters = parameters;
 	}
 	
 	/**
@@ -57,7 +215,10 @@ public class Encoder extends AbstractLT implements Iterator<DefaultEncodedFrame>
 	@Override
 	public void close() {
 		super.close();
-		data = null;
+		if (source != null) {
+			source.close();
+			source = null;
+		}
 		closed = true;
 		// System.gc(); // probably don't need to go that far...
 	}
@@ -73,14 +234,156 @@ public class Encoder extends AbstractLT implements Iterator<DefaultEncodedFrame>
 
 	@Override
 	public DefaultEncodedFrame next() {
-		int[] neighbors = random.getNext();
-		byte[] arr = Arrays.copyOfRange(data[neighbors[0]], 0, data[neighbors[0]].length); // Copy of byte[] to store new frame data
-		for (int i = 1; i < neighbors.length; i++) {
-			DefaultEncodedFrame.xor(arr, data[neighbors[i]]); // Encode for each neighbor byte[]
+		long index = idx.getAndIncrement();
+		return encode(index, random.get((int) index));
+	}
+	
+	/**
+	 * Generate the next {@code n} frames in parallel. The frames are returned 
+	 * in index order, and are the same as calling {@link #next()} n times
+	 * @param n
+	 * @return
+	 */
+	public DefaultEncodedFrame[] nextBatch(int n) {
+		long first = idx.getAndAdd(n);
+		// The sequential stream is generated in order under its lock, so get 
+		// all at once. The counter stream is derived by the tasks in parallel
+		int[][] neighbors = (flags & EncodedFrame.FLAG_COUNTER) == 0 ? random.get((int) first, n) : null;
+		DefaultEncodedFrame[] frames = new DefaultEncodedFrame[n];
+		pool.invoke(new BatchTask(frames, neighbors, first, 0, n));
+		return frames;
+	}
+	
+	/**
+	 * Write the next frame, header and payload, straight into {@code out} at 
+	 * its current position, and advance the position past the frame. Nothing 
+	 * is allocated for the payload, so a send loop can encode into pooled 
+	 * (direct) buffers. The bytes written are the same as 
+	 * {@code next().toByteArr()}
+	 * @param out Needs at least {@link #getEncodedFrameSize()} bytes remaining
+	 * @return Index of the frame written
+	 * @throws BufferOverflowException if there is not enough room in out, in 
+	 * which case no index is used
+	 */
+	public long next(ByteBuffer out) {
+		int at = out.position();
+		if (out.remaining() < getEncodedFrameSize()) {
+			throw new BufferOverflowException();
 		}
-		DefaultEncodedFrame frame = new DefaultEncodedFrame(nonce, filesize, idx++, arr, neighbors);
+		long index = idx.getAndIncrement();
+		DefaultEncodedFrame.writeHeader(out, at, nonce, objectSize, flags, block, blockCount, index);
+		source.combine(out, at + EncodedFrame.headerSize(flags), random.get((int) index));
+		out.position(at + getEncodedFrameSize());
+		return index;
+	}
+	
+	/**
+	 * Write a v2 announce packet of this stream at the position of out, and 
+	 * move it forward. It should be sent before the first v2 packet of 
+	 * frames, and then every now and then for receivers joining late, see 
+	 * {@code WireFormat}
+	 * @param out
+	 * @throws BufferOverflowException
+	 */
+	public void writeAnnounce(ByteBuffer out) {
+		WireFormat.writeAnnounce(out, nonce, objectSize, flags, frameSize, blockCount);
+	}
+	
+	/**
+	 * Write a v2 packet of the next frames at the position of out, as many 
+	 * as fit up to maxFrames, and move it past the packet. Like 
+	 * {@link #next(ByteBuffer)} nothing is allocated
+	 * @param out Needs room for at least one frame
+	 * @param maxFrames
+	 * @return Number of frames written
+	 * @throws BufferOverflowException if there is not room for a single 
+	 * frame, in which case no index is used
+	 */
+	public int nextPacket(ByteBuffer out, int maxFrames) {
+		int frameMax = WireFormat.maxFrameSize(flags, frameSize);
+		if (out.remaining() < WireFormat.PACKET_HEADER_SIZE + frameMax) {
+			throw new BufferOverflowException();
+		}
+		WireFormat.writeHeader(out, WireFormat.TYPE_FRAMES, getSessionId());
+		long previous = -1;
+		int n = 0;
+		while (n < maxFrames && out.remaining() >= frameMax) {
+			previous = writeFrame(out, previous);
+			n++;
+		}
+		return n;
+	}
+	
+	/**
+	 * Write the next frame in a v2 packet
+	 * @param out With at least {@code WireFormat.maxFrameSize} remaining
+	 * @param previous Index of the previous frame of the packet, -1 if none
+	 * @return Index of the frame
+	 */
+	long writeFrame(ByteBuffer out, long previous) {
+		long index = idx.getAndIncrement();
+		WireFormat.writeFrame(out, index, previous, flags, block, source, random.get((int) index), frameSize);
+		return index;
+	}
+	
+	/**
+	 * 
+	 * @return Id of the v2 session of this stream, see {@code WireFormat}
+	 */
+	public int getSessionId() {
+		return WireFormat.sessionId(nonce, objectSize, flags, frameSize, blockCount);
+	}
+	
+	/**
+	 * 
+	 * @return Number of bytes of a serialized frame, header included
+	 */
+	public int getEncodedFrameSize() {
+		return EncodedFrame.headerSize(flags) + frameSize;
+	}
+	
+	private DefaultEncodedFrame encode(long index, int[] neighbors) {
+		BufferPool bp = bufferPool;
+		byte[] arr = bp != null ? bp.acquire() : new byte[frameSize]; // New byte[] to store new frame data
+		source.combine(arr, neighbors); // Encode all neighbor byte[] at once
+		DefaultEncodedFrame frame = new DefaultEncodedFrame(nonce, objectSize, flags, block, blockCount, index, arr, neighbors);
+		frame.setPool(bp);
 		return frame;
 	}
+	
+	/**
+	 * Encode frames {@code [from, to)} of a batch, splitting in half until 
+	 * the range is small enough
+	 */
+	@SuppressWarnings("serial")
+	private class BatchTask extends RecursiveAction {
+		private final DefaultEncodedFrame[] frames;
+		/** Null to derive them in the task */
+		private final int[][] neighbors;
+		private final long first;
+		private final int from, to;
+		
+		BatchTask(DefaultEncodedFrame[] frames, int[][] neighbors, long first, int from, int to) {
+			this.frames = frames;
+			this.neighbors = neighbors;
+			this.first = first;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BATCH_THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					frames[i] = encode(first + i, neighbors != null ? neighbors[i] : random.get((int) (first + i)));
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new BatchTask(frames, neighbors, first, from, mid), 
+						new BatchTask(frames, neighbors, first, mid, to));
+			}
+		}
+	}
 
 	@Override @Deprecated 
 	public void remove() {
@@ -96,6 +399,19 @@ public class Encoder extends AbstractLT implements Iterator<DefaultEncodedFrame>
 	 * @throws IOException
 	 */
 	public static Encoder get(InputStream in, int frameSize, long nonce) throws IOException {
+		return get(in, frameSize, nonce, 0);
+	}
+	
+	/**
+	 * Create encoder from InputStream
+	 * @param in
+	 * @param frameSize
+	 * @param nonce
+	 * @param flags Combination of {@code EncodedFrame.FLAG_*}
+	 * @return
+	 * @throws IOException
+	 */
+	public static Encoder get(InputStream in, int frameSize, long nonce, int flags) throws IOException {
 		List<byte[]> temp = new ArrayList<>();
 		int read;
 		long fileSize = 0;
@@ -107,9 +423,7 @@ public class Encoder extends AbstractLT implements Iterator<DefaultEncodedFrame>
 				fileSize += read;
 			}
 		} while (read == frameSize); // If less than frameSize read, the file is completed
-		Encoder encoder = new Encoder(frameSize, fileSize, nonce);
-		encoder.data = temp.toArray(new byte[0][]);
-		return encoder;
+		return new Encoder(new ByteArrFrameSource(temp.toArray(new byte[0][]), fileSize, frameSize), nonce, flags);
 	}
 	
 
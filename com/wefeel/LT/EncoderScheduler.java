@@ -0,0 +1,411 @@
+package com.wefeel.LT;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Encode many objects at once into a single stream of frames. <br>
+ * <br>
+ * Each {@code Encoder} or {@code BlockEncoder} added is a session with a 
+ * weight, and optionally a number of frames to send and a deadline. A 
+ * single dispatcher thread picks the order of the next batch of frames: in 
+ * {@code FAIR} mode by stride scheduling, each session getting frames in 
+ * proportion to its weight, and in {@code DEADLINE} mode earliest deadline 
+ * first, sessions without a deadline sharing what's left by weight. The 
+ * frames of each session in the batch are then generated in parallel on a 
+ * {@code ForkJoinPool}, one task per session, and put in the output queue 
+ * in the order picked, like {@link BlockEncoder#nextBatch(int)} does for 
+ * blocks. <br>
+ * <br>
+ * The output queue is bounded: the dispatcher waits when it's full, so 
+ * frames are only generated as fast as they are taken. Picking a session 
+ * is a priority queue operation, so one dispatcher can drive thousands of 
+ * sessions. Sessions can be added and removed from any thread, and a 
+ * session is removed by itself once it has sent its frames, or once its 
+ * encoder failed to generate them, e.g. because it was closed, see 
+ * {@link #setOnFailure(BiConsumer)}.
+ * @author R Wang
+ *
+ */
+public class EncoderScheduler implements AutoCloseable {
+
+	public enum Mode {
+		/** Frames in proportion to the weights */
+		FAIR,
+		/** Earliest deadline first, then in proportion to the weights */
+		DEADLINE
+	}
+
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	private final Mode mode;
+	private final BlockingQueue<DefaultEncodedFrame> queue;
+	private final PriorityQueue<Session> sessions;
+	/** Sessions by encoder, guarded by this like sessions */
+	private final Map<Object, Session> byEncoder = new IdentityHashMap<>();
+	/** Pass of the last session picked, new sessions start from it */
+	private double virtualTime;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	private Thread dispatcher;
+	private volatile boolean closed;
+
+	private final LongAdder framesSent = new LongAdder();
+	private final LongAdder missed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	/** Called on the dispatcher with the encoder and what it threw */
+	private volatile BiConsumer<Object, RuntimeException> onFailure = (e, t) -> {};
+
+	/**
+	 * 
+	 * @param mode
+	 * @param capacity Number of frames the output queue holds
+	 */
+	public EncoderScheduler(Mode mode, int capacity) {
+		this.mode = mode;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		Comparator<Session> byPass = Comparator.comparingDouble(s -> s.pass);
+		sessions = new PriorityQueue<>(mode == Mode.DEADLINE 
+				? Comparator.<Session>comparingLong(s -> s.deadline).thenComparing(byPass) : byPass);
+	}
+
+	/**
+	 * Set the pool frames are generated on, the common pool is used by 
+	 * default
+	 * @param pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * 
+	 * @param onFailure Called with the encoder and the exception when a 
+	 * session is removed because its encoder threw, e.g. it was closed 
+	 * while scheduled. Runs on the dispatcher thread
+	 */
+	public void setOnFailure(BiConsumer<Object, RuntimeException> onFailure) {
+		this.onFailure = onFailure;
+	}
+
+	/**
+	 * 
+	 * @param batchSize Number of frames picked at a time
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Send frames of an encoder until removed
+	 * @param encoder
+	 * @param weight Share of the frames, relative to other sessions
+	 */
+	public void add(Encoder encoder, double weight) {
+		add(encoder, weight, Long.MAX_VALUE, 0, null);
+	}
+
+	/**
+	 * Send a number of frames of an encoder, within a deadline in 
+	 * {@code DEADLINE} mode
+	 * @param encoder
+	 * @param weight Share of the frames, relative to other sessions
+	 * @param frames Number of frames to send before the session is removed
+	 * @param deadline From now, or 0 for none
+	 * @param unit
+	 */
+	public void add(Encoder encoder, double weight, long frames, long deadline, TimeUnit unit) {
+		add(new Session(encoder, weight, frames, deadline, unit));
+	}
+
+	/**
+	 * Send frames of all blocks of an encoder until removed
+	 * @param encoder
+	 * @param weight Share of the frames, relative to other sessions
+	 */
+	public void add(BlockEncoder encoder, double weight) {
+		add(encoder, weight, Long.MAX_VALUE, 0, null);
+	}
+
+	/**
+	 * See {@link #add(Encoder, double, long, long, TimeUnit)}
+	 * @param encoder
+	 * @param weight
+	 * @param frames
+	 * @param deadline
+	 * @param unit
+	 */
+	public void add(BlockEncoder encoder, double weight, long frames, long deadline, TimeUnit unit) {
+		add(new Session(encoder, weight, frames, deadline, unit));
+	}
+
+	private synchronized void add(Session s) {
+		if (byEncoder.containsKey(s.encoder())) {
+			throw new IllegalArgumentException("Encoder already scheduled");
+		}
+		s.pass = virtualTime;
+		byEncoder.put(s.encoder(), s);
+		sessions.add(s);
+		notifyAll();
+	}
+
+	/**
+	 * Stop sending frames of an encoder, frames already in the queue are 
+	 * left there
+	 * @param encoder An {@code Encoder} or {@code BlockEncoder}
+	 * @return false if it wasn't scheduled
+	 */
+	public synchronized boolean remove(Object encoder) {
+		Session s = byEncoder.remove(encoder);
+		return s != null && sessions.remove(s);
+	}
+
+	/**
+	 * 
+	 * @return Number of sessions sending
+	 */
+	public synchronized int getSessionCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * 
+	 * @return Where the frames of all sessions go
+	 */
+	public BlockingQueue<DefaultEncodedFrame> getQueue() {
+		return queue;
+	}
+
+	/**
+	 * Take the next frame, waiting for one
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public DefaultEncodedFrame take() throws InterruptedException {
+		return queue.take();
+	}
+
+	/**
+	 * Start the dispatcher thread
+	 */
+	public synchronized void start() {
+		if (dispatcher != null) {
+			throw new IllegalStateException("Already started");
+		}
+		dispatcher = new Thread(this::dispatch, "LT-scheduler");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	private void dispatch() {
+		try {
+			while (!closed) {
+				Session[] order = pick();
+				if (order != null) {
+					for (DefaultEncodedFrame f : generate(order)) {
+						queue.put(f);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// Closed
+		}
+	}
+
+	/**
+	 * Pick the sessions of the next batch of frames, waiting for a session
+	 * @return Session of each frame, in order
+	 * @throws InterruptedException
+	 */
+	private synchronized Session[] pick() throws InterruptedException {
+		while (sessions.isEmpty() && !closed) {
+			wait();
+		}
+		if (closed) {
+			return null;
+		}
+		Session[] order = new Session[batchSize];
+		int n = 0;
+		long now = System.nanoTime();
+		while (n < batchSize && !sessions.isEmpty()) {
+			Session s = sessions.poll();
+			order[n++] = s;
+			s.batched++;
+			virtualTime = s.pass;
+			s.pass += 1 / s.weight;
+			if (--s.remaining > 0) {
+				sessions.add(s);
+			} else {
+				byEncoder.remove(s.encoder());
+			}
+			if (s.deadline != Long.MAX_VALUE && s.deadline < now && !s.late) {
+				s.late = true;
+				missed.increment();
+			}
+		}
+		return n == batchSize ? order : Arrays.copyOf(order, n);
+	}
+
+	/**
+	 * Generate the frames of a batch, each session's in parallel. Sessions 
+	 * whose encoder throws are removed, and their frames left out
+	 * @param order
+	 * @return
+	 */
+	private DefaultEncodedFrame[] generate(Session[] order) {
+		List<RecursiveAction> tasks = new ArrayList<>();
+		// A session shows up once per frame picked, but gets a single task
+		Set<Session> inBatch = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Session s : order) {
+			if (inBatch.add(s)) {
+				tasks.add(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						try {
+							s.frames = s.nextBatch(s.batched);
+						} catch (RuntimeException e) {
+							s.error = e; // Not thrown, the other sessions go on
+						}
+					}
+				});
+			}
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		// Interleave back in the order picked
+		DefaultEncodedFrame[] frames = new DefaultEncodedFrame[order.length];
+		int n = 0;
+		for (Session s : order) {
+			if (s.error == null) {
+				frames[n++] = s.frames[s.used++];
+			}
+		}
+		for (Session s : inBatch) {
+			if (s.error != null) {
+				fail(s);
+			}
+			s.frames = null;
+			s.batched = s.used = 0;
+		}
+		framesSent.add(n);
+		return n == frames.length ? frames : Arrays.copyOf(frames, n);
+	}
+
+	private void fail(Session s) {
+		synchronized (this) {
+			if (byEncoder.get(s.encoder()) == s) {
+				byEncoder.remove(s.encoder());
+			}
+			sessions.remove(s);
+		}
+		failed.increment();
+		try {
+			onFailure.accept(s.encoder(), s.error);
+		} catch (RuntimeException e) {
+			// Must not stop the dispatcher either
+		}
+	}
+
+	/**
+	 * 
+	 * @return Number of frames generated
+	 */
+	public long getFramesSent() {
+		return framesSent.sum();
+	}
+
+	/**
+	 * 
+	 * @return Number of sessions removed because their encoder threw
+	 */
+	public long getFailedCount() {
+		return failed.sum();
+	}
+
+	/**
+	 * 
+	 * @return Number of sessions still sending past their deadline
+	 */
+	public long getMissedDeadlines() {
+		return missed.sum();
+	}
+
+	/**
+	 * Stop the dispatcher, the encoders are not closed
+	 */
+	@Override
+	public void close() {
+		Thread t;
+		synchronized (this) {
+			closed = true;
+			t = dispatcher;
+			notifyAll();
+		}
+		if (t != null) {
+			t.interrupt();
+		}
+	}
+
+	private static class Session {
+
+		/** One of them is set */
+		private final Encoder encoder;
+		private final BlockEncoder blockEncoder;
+		private final double weight;
+		/** Absolute, in {@code System.nanoTime()}, or {@code Long.MAX_VALUE} */
+		private final long deadline;
+		/** Frames left to pick, guarded by the scheduler */
+		private long remaining;
+		private double pass;
+		private boolean late;
+		/** Frames in the batch being generated, only used by the dispatcher */
+		private int batched;
+		private int used;
+		private DefaultEncodedFrame[] frames;
+		/** Thrown by the encoder in the batch being generated, the session is removed */
+		private RuntimeException error;
+
+		Session(Object encoder, double weight, long frames, long deadline, TimeUnit unit) {
+			if (!(weight > 0) || frames <= 0) {
+				throw new IllegalArgumentException("Invalid weight " + weight + " or number of frames " + frames);
+			}
+			this.encoder = encoder instanceof Encoder ? (Encoder) encoder : null;
+			this.blockEncoder = encoder instanceof BlockEncoder ? (BlockEncoder) encoder : null;
+			this.weight = weight;
+			this.remaining = frames;
+			this.deadline = deadline > 0 ? System.nanoTime() + unit.toNanos(deadline) : Long.MAX_VALUE;
+		}
+
+		Object encoder() {
+			return encoder != null ? encoder : blockEncoder;
+		}
+
+		DefaultEncodedFrame[] nextBatch(int n) {
+			return encoder != null ? encoder.nextBatch(n) : blockEncoder.nextBatch(n);
+		}
+
+	}
+
+}
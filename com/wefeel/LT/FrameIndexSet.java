@@ -0,0 +1,65 @@
+package com.wefeel.LT;
+
+import java.util.Arrays;
+
+/**
+ * Set of the indexes of the frames received, to drop duplicates. <br>
+ * <br>
+ * A plain bitset grows up to the largest index, which can be huge for a 
+ * receiver joining a long running stream late. Like the bitmap containers 
+ * of a roaring bitmap, the bits are kept in pages of 
+ * {@value #PAGE_BITS} bits instead, only allocated when an index falls in 
+ * them. <br>
+ * <br>
+ * The set is striped over {@value #STRIPES} locks by the low bits of the 
+ * index, so receiving threads rarely wait for each other: index {@code i} 
+ * is bit {@code i / STRIPES} of stripe {@code i % STRIPES}.
+ * @author R Wang
+ *
+ */
+class FrameIndexSet {
+
+	static final int STRIPES = 16;
+	private static final int STRIPE_SHIFT = 4;
+	private static final int PAGE_SHIFT = 16;
+	static final int PAGE_BITS = 1 << PAGE_SHIFT;
+
+	private final Object[] locks = new Object[STRIPES];
+	/** Pages of each stripe, guarded by its lock, null until used */
+	private final long[][][] pages = new long[STRIPES][0][];
+
+	FrameIndexSet() {
+		for (int s = 0; s < STRIPES; s++) {
+			locks[s] = new Object();
+		}
+	}
+
+	/**
+	 * Add an index. Safe to call from any thread
+	 * @param index Not negative
+	 * @return false if it was already in the set
+	 */
+	boolean add(int index) {
+		int stripe = index & (STRIPES - 1);
+		int bit = index >>> STRIPE_SHIFT;
+		int p = bit >>> PAGE_SHIFT;
+		int word = (bit & (PAGE_BITS - 1)) >>> 6;
+		long mask = 1l << bit;
+		synchronized (locks[stripe]) {
+			long[][] own = pages[stripe];
+			if (p >= own.length) {
+				own = pages[stripe] = Arrays.copyOf(own, Math.max(p + 1, own.length * 2));
+			}
+			long[] page = own[p];
+			if (page == null) {
+				page = own[p] = new long[PAGE_BITS >>> 6];
+			}
+			if ((page[word] & mask) != 0) {
+				return false;
+			}
+			page[word] |= mask;
+			return true;
+		}
+	}
+
+}
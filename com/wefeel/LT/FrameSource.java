@@ -0,0 +1,63 @@
+package com.wefeel.LT;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source frames the {@code Encoder} reads from. <br>
+ * <br>
+ * All frames have the same length, {@code frameSize}. The last frame of a
+ * file may be shorter, in which case the missing bytes read as 0.
+ * @author R Wang
+ *
+ */
+public interface FrameSource extends AutoCloseable {
+
+	/**
+	 *
+	 * @return Total number of bytes of the source
+	 */
+	long getFilesize();
+
+	/**
+	 *
+	 * @return Number of bytes in each frame
+	 */
+	int getFrameSize();
+
+	/**
+	 *
+	 * @return Number of source frames
+	 */
+	int getNPackets();
+
+	/**
+	 * Overwrite target with the XOR of all frames at the given indexes
+	 * @param target byte[] of {@code frameSize}
+	 * @param indexes Index of source frames, must not be empty
+	 */
+	void combine(byte[] target, int[] indexes);
+
+	/**
+	 * Overwrite {@code frameSize} bytes of target from {@code targetIndex} 
+	 * with the XOR of all frames at the given indexes. The position of 
+	 * target is not changed
+	 * @param target
+	 * @param targetIndex
+	 * @param indexes Index of source frames, must not be empty
+	 */
+	void combine(ByteBuffer target, int targetIndex, int[] indexes);
+
+	/**
+	 * A view of {@code count} consecutive frames of this source, without 
+	 * copying the frames. The view may use this source, which must stay 
+	 * open until the view is closed
+	 * @param first Index of the first frame of the view
+	 * @param count Number of frames in the view
+	 * @return
+	 */
+	FrameSource slice(int first, int count);
+
+	@Override
+	void close();
+
+}
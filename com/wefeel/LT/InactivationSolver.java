@@ -0,0 +1,375 @@
+package com.wefeel.LT;
+
+import java.util.Arrays;
+
+/**
+ * Inactivation decoding of the equations peeling can't go through. <br>
+ * <br>
+ * Each equation is the XOR of some unknown symbols, and its payload the 
+ * XOR of their content. Peeling goes on as usual, solving any equation 
+ * with a single unknown left. When it stalls, the equation with the fewest 
+ * unknowns gets all of them but one inactivated: they are carried along as 
+ * a bitset instead of being solved, and peeling resumes. Once nothing is 
+ * left to peel, the equations left only hold inactive symbols, which are 
+ * solved by GF(2) elimination over bit-packed {@code long[]} rows, and 
+ * every peeled symbol is then the XOR of its equation and the inactive 
+ * symbols in its bitset. <br>
+ * <br>
+ * Only a few symbols end up inactive, so the elimination is much smaller 
+ * than solving the whole system. The same run can be done without 
+ * payloads first, which only says if it would succeed, so a failed attempt 
+ * costs no XOR of payloads at all. <br>
+ * <br>
+ * Not thread safe, an instance can be reused.
+ * @author R Wang
+ *
+ */
+class InactivationSolver {
+
+	private static final byte ACTIVE = 0, PEELED = 1, INACTIVE = 2;
+
+	/** Number of symbols, unknown or not */
+	private final int symbols;
+	/** Symbols [0, required) must all be solved, the others may stay unknown */
+	private final int required;
+
+	/** Column of each unknown symbol, -1 if the symbol isn't in any equation */
+	private int[] colOf;
+
+	// State of a run, indexed by column or row
+	private int[] symbolOf;
+	private byte[] state;
+	/** Row that peeled a column, or position in inactive order */
+	private int[] solvedBy;
+	private int[] activeDegree;
+	private boolean[] alive;
+	/** Inactive symbols in each row, null while there are none */
+	private long[][] bits;
+	private int words;
+	/** Rows containing each column, CSR style */
+	private int[] colStart, colRows;
+	private int nInactive;
+	private int[] inactiveCols;
+	/** Equations missing after a failed run, see {@link #getDeficit()} */
+	private int deficit;
+	/** XOR of payloads done by the last run, see {@link #getXorCount()} */
+	private long xors;
+
+	/**
+	 * 
+	 * @param symbols Number of symbols
+	 * @param required Symbols {@code [0, required)} must be solved for a run 
+	 * to succeed
+	 */
+	InactivationSolver(int symbols, int required) {
+		this.symbols = symbols;
+		this.required = required;
+	}
+
+	/**
+	 * Solve the unknown symbols of some equations
+	 * @param rows Unknown symbols of each equation, known ones already removed
+	 * @param nRows Number of equations used in rows
+	 * @param payloads Payload of each equation, with the known symbols already 
+	 * XOR'ed out. Overwritten. If null, nothing is solved, only whether it 
+	 * would succeed is returned
+	 * @param solved Receives the content of each symbol solved, indexed by 
+	 * symbol. Not used if payloads is null
+	 * @param unknownRequired Number of symbols in {@code [0, required)} that 
+	 * are unknown
+	 * @return true if all the required symbols are solved
+	 */
+	boolean solve(int[][] rows, int nRows, byte[][] payloads, byte[][] solved, int unknownRequired) {
+		int nCols = index(rows, nRows);
+		deficit = 0;
+		xors = 0;
+		try {
+			// Required symbols in no equation will be columns too
+			int uncovered = unknownRequired - countRequired(nCols);
+			if (nCols + uncovered > nRows || uncovered > 0) {
+				deficit = Math.max(1, nCols + uncovered - nRows);
+				return false; // Can't have full rank, or some required symbol is in no equation
+			}
+			init(rows, nRows, nCols);
+			peel(rows, nRows, payloads);
+			byte[][] inactiveValues = eliminate(nRows, payloads);
+			if (inactiveValues == null) {
+				return false;
+			}
+			if (payloads != null) {
+				backSubstitute(nCols, payloads, inactiveValues, solved);
+			}
+			return true;
+		} finally {
+			for (int c = 0; c < nCols; c++) {
+				colOf[symbolOf[c]] = -1;
+			}
+		}
+	}
+
+	/**
+	 * Number the unknown symbols found in the equations
+	 * @return Number of columns
+	 */
+	private int index(int[][] rows, int nRows) {
+		if (colOf == null) {
+			colOf = new int[symbols];
+			Arrays.fill(colOf, -1);
+		}
+		int total = 0;
+		for (int r = 0; r < nRows; r++) {
+			total += rows[r].length;
+		}
+		if (symbolOf == null || symbolOf.length < Math.min(total, symbols)) {
+			symbolOf = new int[Math.min(total, symbols)];
+		}
+		int nCols = 0;
+		for (int r = 0; r < nRows; r++) {
+			for (int s : rows[r]) {
+				if (colOf[s] == -1) {
+					colOf[s] = nCols;
+					symbolOf[nCols++] = s;
+				}
+			}
+		}
+		return nCols;
+	}
+
+	/**
+	 * 
+	 * @return After a failed run, the number of equations that must be added 
+	 * at least before a run can succeed: each one raises the rank by one at 
+	 * most. 0 after a run that succeeded
+	 */
+	int getDeficit() {
+		return deficit;
+	}
+
+	/**
+	 * 
+	 * @return XOR of payloads done by the last run, 0 if it was a dry run
+	 */
+	long getXorCount() {
+		return xors;
+	}
+
+	private int countRequired(int nCols) {
+		int n = 0;
+		for (int c = 0; c < nCols; c++) {
+			if (symbolOf[c] < required) n++;
+		}
+		return n;
+	}
+
+	private void init(int[][] rows, int nRows, int nCols) {
+		state = new byte[nCols];
+		solvedBy = new int[nCols];
+		inactiveCols = new int[nCols];
+		nInactive = 0;
+		activeDegree = new int[nRows];
+		alive = new boolean[nRows];
+		bits = new long[nRows][];
+		words = 1;
+		colStart = new int[nCols + 1];
+		for (int r = 0; r < nRows; r++) {
+			activeDegree[r] = rows[r].length;
+			alive[r] = true;
+			for (int s : rows[r]) {
+				colStart[colOf[s] + 1]++;
+			}
+		}
+		for (int c = 0; c < nCols; c++) {
+			colStart[c + 1] += colStart[c];
+		}
+		colRows = new int[colStart[nCols]];
+		int[] fill = Arrays.copyOf(colStart, nCols);
+		for (int r = 0; r < nRows; r++) {
+			for (int s : rows[r]) {
+				colRows[fill[colOf[s]]++] = r;
+			}
+		}
+	}
+
+	/**
+	 * Peel, inactivating symbols whenever no equation has a single active 
+	 * symbol left
+	 */
+	private void peel(int[][] rows, int nRows, byte[][] payloads) {
+		int[] queue = new int[nRows]; // A row's degree only goes down, so it's queued at most once
+		int head = 0, tail = 0;
+		for (int r = 0; r < nRows; r++) {
+			if (activeDegree[r] == 1) queue[tail++] = r;
+		}
+		while (true) {
+			while (head < tail) {
+				int r = queue[head++];
+				if (!alive[r] || activeDegree[r] != 1) continue;
+				int col = -1;
+				for (int s : rows[r]) {
+					if (state[colOf[s]] == ACTIVE) {
+						col = colOf[s];
+						break;
+					}
+				}
+				// r now defines the symbol, remove it from every other equation
+				alive[r] = false;
+				state[col] = PEELED;
+				solvedBy[col] = r;
+				for (int i = colStart[col]; i < colStart[col + 1]; i++) {
+					int o = colRows[i];
+					if (!alive[o]) continue;
+					if (payloads != null) {
+						XorEngine.get().xor(payloads[o], payloads[r]);
+						xors++;
+					}
+					xorBits(o, r);
+					if (--activeDegree[o] == 1) {
+						queue[tail++] = o;
+					}
+				}
+			}
+			// Stalled, pick the equation with the fewest active symbols
+			int best = -1;
+			for (int r = 0; r < nRows; r++) {
+				if (alive[r] && activeDegree[r] > 1 && (best == -1 || activeDegree[r] < activeDegree[best])) {
+					best = r;
+				}
+			}
+			if (best == -1) {
+				return; // Only inactive symbols left
+			}
+			int keep = -1;
+			for (int s : rows[best]) {
+				int col = colOf[s];
+				if (state[col] != ACTIVE) continue;
+				if (keep == -1) {
+					keep = col;
+					continue;
+				}
+				inactivate(col);
+				for (int i = colStart[col]; i < colStart[col + 1]; i++) {
+					int o = colRows[i];
+					if (alive[o] && --activeDegree[o] == 1) {
+						queue[tail++] = o;
+					}
+				}
+			}
+		}
+	}
+
+	private void inactivate(int col) {
+		int q = nInactive++;
+		state[col] = INACTIVE;
+		solvedBy[col] = q;
+		inactiveCols[q] = col;
+		if (q >= words * 64) {
+			words *= 2;
+			for (int r = 0; r < bits.length; r++) {
+				if (bits[r] != null) bits[r] = Arrays.copyOf(bits[r], words);
+			}
+		}
+		for (int i = colStart[col]; i < colStart[col + 1]; i++) {
+			int o = colRows[i];
+			if (!alive[o]) continue;
+			if (bits[o] == null) bits[o] = new long[words];
+			bits[o][q >>> 6] ^= 1l << q;
+		}
+	}
+
+	private void xorBits(int target, int source) {
+		long[] s = bits[source];
+		if (s == null) return;
+		if (bits[target] == null) bits[target] = new long[words];
+		long[] t = bits[target];
+		for (int i = 0; i < words; i++) {
+			t[i] ^= s[i];
+		}
+	}
+
+	/**
+	 * Gauss-Jordan elimination of the equations left, which only hold 
+	 * inactive symbols
+	 * @return Content of each inactive symbol, in inactive order, or null 
+	 * if they can't all be solved. Empty arrays if payloads is null
+	 */
+	private byte[][] eliminate(int nRows, byte[][] payloads) {
+		int[] left = new int[nRows];
+		int n = 0;
+		for (int r = 0; r < nRows; r++) {
+			if (alive[r]) {
+				if (bits[r] == null) bits[r] = new long[words];
+				left[n++] = r;
+			}
+		}
+		if (n < nInactive) {
+			deficit = nInactive - n;
+			return null;
+		}
+		// Rows [0, rank) hold the pivots found so far. Only a dry run can 
+		// miss one, it goes on to count them all for the deficit
+		int rank = 0;
+		for (int q = 0; q < nInactive; q++) {
+			int word = q >>> 6;
+			long mask = 1l << q;
+			int pivot = -1;
+			for (int i = rank; i < n; i++) {
+				if ((bits[left[i]][word] & mask) != 0) {
+					pivot = i;
+					break;
+				}
+			}
+			if (pivot == -1) {
+				deficit++; // Not full rank, more equations are needed
+				continue;
+			}
+			int p = left[pivot];
+			left[pivot] = left[rank];
+			left[rank++] = p;
+			long[] pb = bits[p];
+			for (int i = 0; i < n; i++) {
+				int o = left[i];
+				if (o == p || (bits[o][word] & mask) == 0) continue;
+				long[] ob = bits[o];
+				for (int w = word; w < words; w++) { // Lower words of the pivot are already clear
+					ob[w] ^= pb[w];
+				}
+				if (payloads != null) {
+					XorEngine.get().xor(payloads[o], payloads[p]);
+					xors++;
+				}
+			}
+		}
+		if (deficit > 0) {
+			return null;
+		}
+		byte[][] values = new byte[nInactive][];
+		if (payloads != null) {
+			for (int q = 0; q < nInactive; q++) {
+				values[q] = payloads[left[q]];
+			}
+		}
+		return values;
+	}
+
+	private void backSubstitute(int nCols, byte[][] payloads, byte[][] inactiveValues, byte[][] solved) {
+		for (int c = 0; c < nCols; c++) {
+			if (state[c] == INACTIVE) {
+				solved[symbolOf[c]] = inactiveValues[solvedBy[c]];
+			} else if (state[c] == PEELED) {
+				int r = solvedBy[c];
+				byte[] value = payloads[r];
+				long[] b = bits[r];
+				if (b != null) {
+					for (int w = 0; w < words; w++) {
+						for (long x = b[w]; x != 0; x &= x - 1) {
+							XorEngine.get().xor(value, inactiveValues[(w << 6) + Long.numberOfTrailingZeros(x)]);
+							xors++;
+						}
+					}
+				}
+				solved[symbolOf[c]] = value;
+			}
+		}
+	}
+
+}
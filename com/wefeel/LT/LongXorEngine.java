@@ -0,0 +1,122 @@
+package com.wefeel.LT;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * XOR 8 bytes at a time by viewing the byte[] as long[]. The byte order
+ * doesn't matter for XOR, so native order is used to avoid any swapping.
+ * The tail that doesn't fill a whole long is done byte by byte.
+ * @author R Wang
+ *
+ */
+public class LongXorEngine extends XorEngine {
+
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	/** Same view over a ByteBuffer, must use the same byte order as {@link #LONGS} */
+	private static final VarHandle BUFFER_LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	@Override
+	public void xor(byte[] target, int targetOffset, byte[] src, int srcOffset, int len) {
+		int i = 0;
+		for (; i <= len - Long.BYTES; i += Long.BYTES) {
+			LONGS.set(target, targetOffset + i,
+					(long) LONGS.get(target, targetOffset + i) ^ (long) LONGS.get(src, srcOffset + i));
+		}
+		for (; i < len; i++) {
+			target[targetOffset + i] ^= src[srcOffset + i];
+		}
+	}
+
+	@Override
+	public void xor(byte[] target, int targetOffset, ByteBuffer src, int srcIndex, int len) {
+		int i = 0;
+		for (; i <= len - Long.BYTES; i += Long.BYTES) {
+			LONGS.set(target, targetOffset + i,
+					(long) LONGS.get(target, targetOffset + i) ^ (long) BUFFER_LONGS.get(src, srcIndex + i));
+		}
+		for (; i < len; i++) {
+			target[targetOffset + i] ^= src.get(srcIndex + i);
+		}
+	}
+
+	@Override
+	public void xor(ByteBuffer target, int targetIndex, byte[] src, int srcOffset, int len) {
+		int i = 0;
+		for (; i <= len - Long.BYTES; i += Long.BYTES) {
+			BUFFER_LONGS.set(target, targetIndex + i,
+					(long) BUFFER_LONGS.get(target, targetIndex + i) ^ (long) LONGS.get(src, srcOffset + i));
+		}
+		for (; i < len; i++) {
+			target.put(targetIndex + i, (byte) (target.get(targetIndex + i) ^ src[srcOffset + i]));
+		}
+	}
+
+	@Override
+	public void xor(ByteBuffer target, int targetIndex, ByteBuffer src, int srcIndex, int len) {
+		int i = 0;
+		for (; i <= len - Long.BYTES; i += Long.BYTES) {
+			BUFFER_LONGS.set(target, targetIndex + i,
+					(long) BUFFER_LONGS.get(target, targetIndex + i) ^ (long) BUFFER_LONGS.get(src, srcIndex + i));
+		}
+		for (; i < len; i++) {
+			target.put(targetIndex + i, (byte) (target.get(targetIndex + i) ^ src.get(srcIndex + i)));
+		}
+	}
+
+	@Override
+	protected void xor(byte[] target, byte[] a, byte[] b, byte[] c, byte[] d, int len) {
+		if (c == null) {
+			xor2(target, a, b, len);
+		} else if (d == null) {
+			xor3(target, a, b, c, len);
+		} else {
+			xor4(target, a, b, c, d, len);
+		}
+	}
+
+	// Separate loops so that the JIT doesn't have to check for null sources
+	// on every word
+
+	private static void xor2(byte[] target, byte[] a, byte[] b, int len) {
+		int i = 0;
+		for (; i <= len - Long.BYTES; i += Long.BYTES) {
+			LONGS.set(target, i, (long) LONGS.get(target, i)
+					^ (long) LONGS.get(a, i)
+					^ (long) LONGS.get(b, i));
+		}
+		for (; i < len; i++) {
+			target[i] ^= a[i] ^ b[i];
+		}
+	}
+
+	private static void xor3(byte[] target, byte[] a, byte[] b, byte[] c, int len) {
+		int i = 0;
+		for (; i <= len - Long.BYTES; i += Long.BYTES) {
+			LONGS.set(target, i, (long) LONGS.get(target, i)
+					^ (long) LONGS.get(a, i)
+					^ (long) LONGS.get(b, i)
+					^ (long) LONGS.get(c, i));
+		}
+		for (; i < len; i++) {
+			target[i] ^= a[i] ^ b[i] ^ c[i];
+		}
+	}
+
+	private static void xor4(byte[] target, byte[] a, byte[] b, byte[] c, byte[] d, int len) {
+		int i = 0;
+		for (; i <= len - Long.BYTES; i += Long.BYTES) {
+			LONGS.set(target, i, (long) LONGS.get(target, i)
+					^ (long) LONGS.get(a, i)
+					^ (long) LONGS.get(b, i)
+					^ (long) LONGS.get(c, i)
+					^ (long) LONGS.get(d, i));
+		}
+		for (; i < len; i++) {
+			target[i] ^= a[i] ^ b[i] ^ c[i] ^ d[i];
+		}
+	}
+
+}
@@ -0,0 +1,110 @@
+package com.wefeel.LT;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Decoded source frames written straight into a memory mapped file, the 
+ * counterpart of {@code MappedFrameSource}. <br>
+ * <br>
+ * Frame {@code i} is at {@code position + i * frameSize}, so the file ends 
+ * up holding the decoded object as is, and decoded frames don't stay on 
+ * the heap: they are read back from the mapping when they have to be 
+ * XOR'ed out of other frames. The OS writes the pages back as decoding 
+ * goes. The file is mapped in chunks holding a whole number of frames, 
+ * like {@code MappedFrameSource}, so it can be larger than 2 GiB. <br>
+ * <br>
+ * Frames are only written once and read after, writing and reading 
+ * different frames from different threads is fine.
+ * @author R Wang
+ *
+ */
+class MappedFrameSink implements AutoCloseable {
+
+	private final long length;
+	private final int frameSize;
+	private final int framesPerChunk;
+	private MappedByteBuffer[] chunks;
+
+	/**
+	 * Map {@code length} bytes of the channel from {@code position}, the 
+	 * file grows if it's too short
+	 * @param channel Must be readable and writable, not closed by this class
+	 * @param position
+	 * @param length
+	 * @param frameSize
+	 * @throws IOException
+	 */
+	MappedFrameSink(FileChannel channel, long position, long length, int frameSize) throws IOException {
+		this.length = length;
+		this.frameSize = frameSize;
+		this.framesPerChunk = Math.max(1, MappedFrameSource.MAX_CHUNK_SIZE / frameSize);
+		long chunkSize = (long) framesPerChunk * frameSize;
+		int nChunks = (int) ((length + chunkSize - 1) / chunkSize);
+		chunks = new MappedByteBuffer[nChunks];
+		for (int i = 0; i < nChunks; i++) {
+			long offset = i * chunkSize;
+			chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, position + offset, Math.min(chunkSize, length - offset));
+		}
+	}
+
+	/**
+	 * 
+	 * @param index
+	 * @return Number of bytes of the frame in the file, only the last one 
+	 * can be shorter than frameSize
+	 */
+	int frameLength(int index) {
+		return (int) Math.min(frameSize, length - (long) index * frameSize);
+	}
+
+	/**
+	 * Write a decoded frame. The padding of the last frame is dropped, it's 
+	 * always 0
+	 * @param index
+	 * @param frame
+	 */
+	void write(int index, byte[] frame) {
+		chunks[index / framesPerChunk].put((index % framesPerChunk) * frameSize, frame, 0, frameLength(index));
+	}
+
+	/**
+	 * XOR a frame already written into target
+	 * @param target
+	 * @param index
+	 */
+	void xor(byte[] target, int index) {
+		XorEngine.get().xor(target, 0, chunks[index / framesPerChunk], (index % framesPerChunk) * frameSize, frameLength(index));
+	}
+
+	/**
+	 * Copy part of a frame already written, at the position of dst which is 
+	 * then moved forward
+	 * @param index
+	 * @param offset In the frame
+	 * @param dst
+	 * @param len
+	 */
+	void get(int index, int offset, ByteBuffer dst, int len) {
+		dst.put(dst.position(), chunks[index / framesPerChunk], (index % framesPerChunk) * frameSize + offset, len);
+		dst.position(dst.position() + len);
+	}
+
+	/**
+	 * Copy a frame already written
+	 * @param index
+	 * @param dst
+	 * @param dstOffset
+	 */
+	void get(int index, byte[] dst, int dstOffset) {
+		chunks[index / framesPerChunk].get((index % framesPerChunk) * frameSize, dst, dstOffset, frameLength(index));
+	}
+
+	@Override
+	public void close() {
+		chunks = null; // Unmapped when collected
+	}
+
+}
@@ -0,0 +1,171 @@
+package com.wefeel.LT;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Source frames read straight from a memory mapped file, so nothing is
+ * copied onto the heap and the file can be larger than the heap. <br>
+ * <br>
+ * A single {@code MappedByteBuffer} can't be larger than 2 GiB, so the file
+ * is mapped in chunks. Each chunk holds a whole number of frames so that a
+ * frame never spans two chunks.
+ * @author R Wang
+ *
+ */
+public class MappedFrameSource implements FrameSource {
+
+	/** Largest chunk to map at once, about 1 GiB */
+	public static final int MAX_CHUNK_SIZE = 1 << 30;
+
+	private final long filesize;
+	private final int frameSize;
+	private final int nPackets;
+	private final int framesPerChunk;
+	private MappedByteBuffer[] chunks;
+	/** Kept to map slices of this source */
+	private FileChannel channel;
+	/** Position of the first frame in the channel */
+	private final long position;
+	/** Only set if the channel was opened by us, and so should be closed by us */
+	private FileChannel ownChannel;
+
+	/**
+	 * Map the file at path as read only
+	 * @param path
+	 * @param frameSize
+	 * @throws IOException
+	 */
+	public MappedFrameSource(Path path, int frameSize) throws IOException {
+		this(FileChannel.open(path, StandardOpenOption.READ), frameSize, true);
+	}
+
+	private MappedFrameSource(FileChannel channel, int frameSize, boolean ownChannel) throws IOException {
+		this(channel, 0, channel.size(), frameSize, ownChannel);
+	}
+
+	/**
+	 * Map the whole content of the channel. The channel is not closed by
+	 * this class
+	 * @param channel Must be readable
+	 * @param frameSize
+	 * @throws IOException
+	 */
+	public MappedFrameSource(FileChannel channel, int frameSize) throws IOException {
+		this(channel, frameSize, false);
+	}
+
+	/**
+	 * Map {@code length} bytes of the channel from {@code position}
+	 * @param channel
+	 * @param position
+	 * @param length
+	 * @param frameSize
+	 * @param ownChannel If the channel should be closed with this source
+	 * @throws IOException
+	 */
+	private MappedFrameSource(FileChannel channel, long position, long length, int frameSize, boolean ownChannel) throws IOException {
+		// The channel is not needed after mapping, but keep it until closed
+		// to hold on to the file
+		this.channel = channel;
+		this.ownChannel = ownChannel ? channel : null;
+		this.position = position;
+		this.filesize = length;
+		this.frameSize = frameSize;
+		this.nPackets = (int) Math.ceil(filesize / (double) frameSize);
+		this.framesPerChunk = Math.max(1, MAX_CHUNK_SIZE / frameSize);
+		long chunkSize = (long) framesPerChunk * frameSize;
+		int nChunks = (int) ((filesize + chunkSize - 1) / chunkSize);
+		chunks = new MappedByteBuffer[nChunks];
+		for (int i = 0; i < nChunks; i++) {
+			long offset = i * chunkSize;
+			chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + offset, Math.min(chunkSize, filesize - offset));
+		}
+	}
+
+	@Override
+	public long getFilesize() {
+		return filesize;
+	}
+
+	@Override
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	@Override
+	public int getNPackets() {
+		return nPackets;
+	}
+
+	@Override
+	public void combine(byte[] target, int[] indexes) {
+		XorEngine engine = XorEngine.get();
+		MappedByteBuffer chunk = chunks[indexes[0] / framesPerChunk];
+		int offset = (indexes[0] % framesPerChunk) * frameSize;
+		int len = Math.min(frameSize, chunk.limit() - offset);
+		chunk.get(offset, target, 0, len);
+		if (len < frameSize) { // Last frame, pad with 0
+			Arrays.fill(target, len, frameSize, (byte) 0);
+		}
+		for (int i = 1; i < indexes.length; i++) {
+			chunk = chunks[indexes[i] / framesPerChunk];
+			offset = (indexes[i] % framesPerChunk) * frameSize;
+			len = Math.min(frameSize, chunk.limit() - offset);
+			engine.xor(target, 0, chunk, offset, len);
+		}
+	}
+
+	@Override
+	public void combine(ByteBuffer target, int targetIndex, int[] indexes) {
+		XorEngine engine = XorEngine.get();
+		MappedByteBuffer chunk = chunks[indexes[0] / framesPerChunk];
+		int offset = (indexes[0] % framesPerChunk) * frameSize;
+		int len = Math.min(frameSize, chunk.limit() - offset);
+		target.put(targetIndex, chunk, offset, len);
+		for (int i = len; i < frameSize; i++) { // Last frame, pad with 0
+			target.put(targetIndex + i, (byte) 0);
+		}
+		for (int i = 1; i < indexes.length; i++) {
+			chunk = chunks[indexes[i] / framesPerChunk];
+			offset = (indexes[i] % framesPerChunk) * frameSize;
+			len = Math.min(frameSize, chunk.limit() - offset);
+			engine.xor(target, targetIndex, chunk, offset, len);
+		}
+	}
+
+	/**
+	 * Map the given frames on their own, on the channel of this source. 
+	 * Must be called before this source is closed, and this source must 
+	 * stay open as long as the slice is used
+	 */
+	@Override
+	public FrameSource slice(int first, int count) {
+		long offset = (long) first * frameSize;
+		try {
+			return new MappedFrameSource(channel, position + offset, 
+					Math.min((long) count * frameSize, filesize - offset), frameSize, false);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		chunks = null; // Unmapped when collected
+		channel = null;
+		if (ownChannel != null) {
+			try {
+				ownChannel.close();
+			} catch (IOException e) {} // Nothing we can do here
+			ownChannel = null;
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.wefeel.LT;
+
+/**
+ * Degree distributions shipped with the library, one per range of the 
+ * number of source frames {@code k}. <br>
+ * <br>
+ * A stream with {@code EncodedFrame.FLAG_TUNED} uses the row of its 
+ * {@code k}, and its ID is sent in the top bits of the flags byte, see 
+ * {@link EncodedFrame#parameterId(int)}, so the decoder doesn't look up 
+ * {@code k} on its own and both ends always agree. Rows must only ever be 
+ * added: the ID of a row is part of the wire format. <br>
+ * <br>
+ * The rows come from {@code ParameterTuner} at 10% loss with inactivation 
+ * decoding, as the decoder runs by default, over {@code c} and the spike, 
+ * see {@code test/ParameterTuning.java}. Below 200 frames no candidate 
+ * beat the default by more than the noise of the simulation, so it is 
+ * kept there.
+ * @author R Wang
+ *
+ */
+public final class ParameterTable {
+
+	/** Smallest k of each row, increasing */
+	private static final int[] MIN_K = {1, 200, 2000};
+	private static final CodeParameters[] ROWS = {
+			CodeParameters.DEFAULT,
+			CodeParameters.withSpike(84, 0.5),
+			CodeParameters.withC(0.01, 0.5),
+	};
+
+	private ParameterTable() {
+	}
+
+	/**
+	 * 
+	 * @param k Number of source frames
+	 * @return ID of the row used for {@code k}
+	 */
+	public static int idFor(int k) {
+		int id = 0;
+		while (id + 1 < MIN_K.length && k >= MIN_K[id + 1]) {
+			id++;
+		}
+		return id;
+	}
+
+	/**
+	 * 
+	 * @param id
+	 * @return Parameters of a row
+	 */
+	public static CodeParameters get(int id) {
+		if (id < 0 || id >= ROWS.length) {
+			throw new IllegalArgumentException("Unknown parameter id " + id);
+		}
+		return ROWS[id];
+	}
+
+	/**
+	 * 
+	 * @param id
+	 * @return Smallest k of a row
+	 */
+	public static int getMinK(int id) {
+		get(id);
+		return MIN_K[id];
+	}
+
+	public static int size() {
+		return ROWS.length;
+	}
+
+	/**
+	 * 
+	 * @param flags
+	 * @param k Number of source frames, of the first block for a split object
+	 * @return The flags with the ID of the row of {@code k} if 
+	 * {@code FLAG_TUNED} is set, else unchanged
+	 */
+	static int tune(int flags, int k) {
+		if ((flags & EncodedFrame.FLAG_TUNED) == 0) {
+			return flags;
+		}
+		return (flags & ~EncodedFrame.PARAMETER_ID_MASK) | (idFor(k) << EncodedFrame.PARAMETER_ID_SHIFT);
+	}
+
+}
@@ -0,0 +1,188 @@
+package com.wefeel.LT;
+
+import java.util.Arrays;
+
+import com.wefeel.LT.Random.DegreeGenerator;
+import com.wefeel.LT.Random.SplitMix64;
+import com.wefeel.LT.Random.WeakenedSolitonGenerator;
+
+/**
+ * Raptor style precode, used when {@code EncodedFrame.FLAG_PRECODE} is set. <br>
+ * <br>
+ * The {@code k} source frames are expanded into {@code k + s + h} 
+ * intermediate symbols before the LT stage: <br>
+ * - {@code s} sparse LDPC parity symbols, each source frame being added to 3 
+ * of them the same way as RFC 5053 does; <br>
+ * - {@code h} dense parity symbols, each the XOR of about half of the source 
+ * and LDPC symbols. <br>
+ * <br>
+ * The LT stage then covers the intermediate symbols with the 
+ * {@code WeakenedSolitonGenerator} distribution, which leaves a few percent 
+ * of them to the precode. The decoder adds each parity check as an encoded 
+ * frame with an all zero payload whose neighbors are the members of the 
+ * check and the parity symbol itself, and peels them like any other frame. <br>
+ * <br>
+ * Everything only depends on {@code k}, so both ends build the same checks.
+ * @author R Wang
+ *
+ */
+public class Precode {
+
+	/** Number of LDPC symbols each source frame is added to */
+	public static final int LDPC_DEGREE = 3;
+	/** Fraction of source frames added as LDPC symbols */
+	public static final double LDPC_RATIO = 0.015;
+	/** Seed of the membership of the dense symbols */
+	private static final long DENSE_SEED = 0x6A09E667F3BCC909l;
+
+	private final int k;
+	private final int s;
+	private final int h;
+
+	/**
+	 * 
+	 * @param k Number of source frames
+	 */
+	public Precode(int k) {
+		this.k = k;
+		this.s = ldpcCount(k);
+		this.h = denseCount(k, s);
+	}
+
+	private static int ldpcCount(int k) {
+		int s = (int) Math.ceil(k * LDPC_RATIO) + 3;
+		while (!isPrime(s)) s++;
+		return s;
+	}
+
+	private static int denseCount(int k, int s) {
+		return 32 - Integer.numberOfLeadingZeros(k + s); // ceil(log2(k + s + 1))
+	}
+
+	private static boolean isPrime(int n) {
+		for (int i = 2; i * i <= n; i++) {
+			if (n % i == 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 
+	 * @param k Number of source frames
+	 * @return Number of intermediate symbols the LT stage covers
+	 */
+	public static int symbolCount(int k) {
+		int s = ldpcCount(k);
+		return k + s + denseCount(k, s);
+	}
+
+	/**
+	 * Degree distribution of the LT stage
+	 * @param symbols Number of intermediate symbols
+	 * @param seed
+	 * @return
+	 */
+	public static DegreeGenerator degrees(int symbols, long seed) {
+		return new WeakenedSolitonGenerator(symbols, WeakenedSolitonGenerator.DEFAULT_EPSILON, seed);
+	}
+
+	public int getSourceCount() {
+		return k;
+	}
+
+	public int getLdpcCount() {
+		return s;
+	}
+
+	public int getDenseCount() {
+		return h;
+	}
+
+	public int getSymbolCount() {
+		return k + s + h;
+	}
+
+	/**
+	 * The parity checks, one per LDPC and dense symbol. Each row lists the 
+	 * symbols XOR'ed into the parity symbol, followed by the parity symbol 
+	 * itself, so that the XOR of all symbols of a row is 0
+	 * @return
+	 */
+	public int[][] getConstraints() {
+		int[][] rows = new int[s + h][];
+		// LDPC, symbol i goes to b, b + a, b + 2a (mod s)
+		int[] counts = new int[s];
+		for (int i = 0; i < k; i++) {
+			int a = 1 + (i / s) % (s - 1);
+			int b = i % s;
+			for (int j = 0; j < LDPC_DEGREE; j++) {
+				counts[b]++;
+				b = (b + a) % s;
+			}
+		}
+		for (int j = 0; j < s; j++) {
+			rows[j] = new int[counts[j] + 1];
+			rows[j][counts[j]] = k + j;
+			counts[j] = 0;
+		}
+		for (int i = 0; i < k; i++) {
+			int a = 1 + (i / s) % (s - 1);
+			int b = i % s;
+			for (int j = 0; j < LDPC_DEGREE; j++) {
+				rows[b][counts[b]++] = i;
+				b = (b + a) % s;
+			}
+		}
+		// Dense, one pseudo random bit per (symbol, row)
+		int n = k + s;
+		for (int j = 0; j < h; j++) {
+			int count = 0;
+			for (int i = 0; i < n; i++) {
+				if (isDenseMember(i, j)) count++;
+			}
+			int[] row = new int[count + 1];
+			count = 0;
+			for (int i = 0; i < n; i++) {
+				if (isDenseMember(i, j)) row[count++] = i;
+			}
+			row[count] = n + j;
+			rows[s + j] = row;
+		}
+		return rows;
+	}
+
+	private static boolean isDenseMember(int symbol, int row) {
+		return (SplitMix64.mix64(DENSE_SEED + symbol * 64l + row) & 1) != 0;
+	}
+
+	/**
+	 * Compute the parity symbols of a source
+	 * @param source
+	 * @return {@code s + h} frames, intermediate symbols {@code k} onwards
+	 */
+	public byte[][] encode(FrameSource source) {
+		int frameSize = source.getFrameSize();
+		int[][] rows = getConstraints();
+		byte[][] parity = new byte[s + h][frameSize];
+		int[] sourceIdx = new int[k];
+		int[] parityIdx = new int[s];
+		for (int j = 0; j < rows.length; j++) {
+			int[] row = rows[j];
+			int nSource = 0, nParity = 0;
+			for (int m = 0; m < row.length - 1; m++) { // Last one is the parity symbol itself
+				if (row[m] < k) {
+					sourceIdx[nSource++] = row[m];
+				} else {
+					parityIdx[nParity++] = row[m] - k;
+				}
+			}
+			if (nSource > 0) {
+				source.combine(parity[j], Arrays.copyOf(sourceIdx, nSource));
+			}
+			// Dense rows also cover the LDPC symbols, which are all done by now
+			XorEngine.get().xor(parity[j], parity, parityIdx, 0, nParity);
+		}
+		return parity;
+	}
+
+}
@@ -0,0 +1,135 @@
+package com.wefeel.LT;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Intermediate symbols of a {@code Precode}: the frames of another source 
+ * followed by the parity symbols, computed once and kept on the heap
+ * @author R Wang
+ *
+ */
+public class PrecodedFrameSource implements FrameSource {
+
+	private FrameSource source;
+	private byte[][] parity;
+	private final Precode precode;
+
+	/**
+	 * Compute the parity symbols of a source
+	 * @param source Closed when this source is closed
+	 */
+	public PrecodedFrameSource(FrameSource source) {
+		this.source = source;
+		this.precode = new Precode(source.getNPackets());
+		this.parity = precode.encode(source);
+	}
+
+	public Precode getPrecode() {
+		return precode;
+	}
+
+	/**
+	 * 
+	 * @return The source frames, without the parity symbols
+	 */
+	public FrameSource getSource() {
+		return source;
+	}
+
+	/**
+	 * Size of the source frames only
+	 */
+	@Override
+	public long getFilesize() {
+		return source.getFilesize();
+	}
+
+	@Override
+	public int getFrameSize() {
+		return source.getFrameSize();
+	}
+
+	/**
+	 * Number of intermediate symbols, source and parity
+	 */
+	@Override
+	public int getNPackets() {
+		return precode.getSymbolCount();
+	}
+
+	@Override
+	public void combine(byte[] target, int[] indexes) {
+		int[] sourceIdx = new int[indexes.length];
+		int[] parityIdx = new int[indexes.length];
+		int nSource = split(indexes, sourceIdx, parityIdx);
+		int nParity = indexes.length - nSource;
+		if (nSource > 0) {
+			source.combine(target, trim(sourceIdx, nSource));
+			XorEngine.get().xor(target, parity, parityIdx, 0, nParity);
+		} else {
+			XorEngine.get().combine(target, parity, trim(parityIdx, nParity));
+		}
+	}
+
+	@Override
+	public void combine(ByteBuffer target, int targetIndex, int[] indexes) {
+		int[] sourceIdx = new int[indexes.length];
+		int[] parityIdx = new int[indexes.length];
+		int nSource = split(indexes, sourceIdx, parityIdx);
+		int nParity = indexes.length - nSource;
+		int frameSize = getFrameSize();
+		if (nSource > 0) {
+			source.combine(target, targetIndex, trim(sourceIdx, nSource));
+			for (int i = 0; i < nParity; i++) {
+				XorEngine.get().xor(target, targetIndex, parity[parityIdx[i]], 0, frameSize);
+			}
+		} else {
+			XorEngine.get().combine(target, targetIndex, parity, trim(parityIdx, nParity), frameSize);
+		}
+	}
+
+	/**
+	 * Split indexes into source frames and parity symbols, the latter 
+	 * relative to the first parity symbol
+	 * @return Number of source frames
+	 */
+	private int split(int[] indexes, int[] sourceIdx, int[] parityIdx) {
+		int k = precode.getSourceCount();
+		int nSource = 0, nParity = 0;
+		for (int i : indexes) {
+			if (i < k) {
+				sourceIdx[nSource++] = i;
+			} else {
+				parityIdx[nParity++] = i - k;
+			}
+		}
+		return nSource;
+	}
+
+	private static int[] trim(int[] arr, int length) {
+		if (arr.length == length) {
+			return arr;
+		}
+		int[] copy = new int[length];
+		System.arraycopy(arr, 0, copy, 0, length);
+		return copy;
+	}
+
+	/**
+	 * The precode spans the whole source, so it can't be split
+	 */
+	@Override
+	public FrameSource slice(int first, int count) {
+		throw new UnsupportedOperationException("Slice the source before precoding it");
+	}
+
+	@Override
+	public void close() {
+		if (source != null) {
+			source.close();
+			source = null;
+		}
+		parity = null;
+	}
+
+}
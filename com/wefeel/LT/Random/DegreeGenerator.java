@@ -0,0 +1,25 @@
+package com.wefeel.LT.Random;
+
+/**
+ * Distribution of the number of neighbors of an encoded frame, see 
+ * {@code NeighborGenerator}
+ * @author R Wang
+ *
+ */
+public interface DegreeGenerator {
+
+	/**
+	 * 
+	 * @return Next degree from the internal random stream of the generator
+	 */
+	int next();
+
+	/**
+	 * Degree for a given uniform value, without touching the internal random 
+	 * generator. Safe to call from several threads
+	 * @param u Uniform in [0, 1)
+	 * @return
+	 */
+	int degree(double u);
+
+}
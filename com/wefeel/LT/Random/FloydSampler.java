@@ -0,0 +1,67 @@
+package com.wefeel.LT.Random;
+
+/**
+ * Unique int sampler using Floyd's algorithm on a {@code SplitMix64}. <br>
+ * <br>
+ * It takes exactly {@code count} draws whatever {@code max} is, and never 
+ * allocates anything proportional to {@code max} except a bitset, kept 
+ * between calls, used to check for duplicates when {@code count} is too 
+ * large for a linear scan. Both checks give the same output. <br>
+ * <br>
+ * Not thread safe.
+ * @author R Wang
+ *
+ */
+public class FloydSampler extends SplitMix64 implements UniqueSampler {
+
+	/** Below this many values, duplicates are found by scanning the output */
+	static final int BITSET_THRESHOLD = 64;
+
+	private long[] bits = new long[0];
+
+	public FloydSampler(long seed) {
+		super(seed);
+	}
+
+	@Override
+	public void nextInts(int max, int count, int[] out) {
+		if (count > max) {
+			throw new RuntimeException("More random value required than possible");
+		}
+		if (count < BITSET_THRESHOLD) {
+			int n = 0;
+			// For the last count values of the range, pick t in [0, j], 
+			// or j itself if t is already taken
+			for (int j = max - count; j < max; j++) {
+				int t = nextInt(j + 1);
+				for (int k = 0; k < n; k++) {
+					if (out[k] == t) {
+						t = j;
+						break;
+					}
+				}
+				out[n++] = t;
+			}
+			return;
+		}
+		int words = (max + 63) >>> 6;
+		if (bits.length < words) {
+			bits = new long[words];
+		}
+		long[] b = bits;
+		int n = 0;
+		for (int j = max - count; j < max; j++) {
+			int t = nextInt(j + 1);
+			if ((b[t >>> 6] & (1l << t)) != 0) {
+				t = j; // j was never a candidate before, so it can't be taken
+			}
+			b[t >>> 6] |= 1l << t;
+			out[n++] = t;
+		}
+		// Only clear what was set so the cost stays O(count)
+		for (int i = 0; i < count; i++) {
+			b[out[i] >>> 6] = 0;
+		}
+	}
+
+}
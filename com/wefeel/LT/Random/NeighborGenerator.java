@@ -11,38 +11,76 @@ import java.util.List;
  * frame (the {@literal Neighbors}). All neighbors are XOR'ed together into 
  * the encoded frame<br>
  * <br>
- * This class keeps two random generators, a {@code RobustSolitonGenerator} 
+ * This class keeps two random generators, a {@code DegreeGenerator} 
+ * ({@code RobustSolitonGenerator} unless another one is given) 
  * for number of frames to include, and a {@code UniqueRNG} that generate 
  * a list of non-repeating random numbers (so that in no circumstances will 
  * the same source frame be added twice and XOR with itself). The seeds for 
  * two generators are related by simple XOR. <br>
  * <br>
  * The class also stores internally a list of all previously generated 
- * neighbor indexes as rewinding the random generator can be tricky. 
+ * neighbor indexes as rewinding the random generator can be tricky. <br>
+ * <br>
+ * In systematic mode the first {@code nPackets} encoded frames are the 
+ * source frames themselves, each with a single neighbor, and the random 
+ * (repair) frames only start after them. The repair frames use the same 
+ * random stream as the non systematic mode, only shifted by {@code nPackets}. <br>
+ * <br>
+ * All methods are synchronized, so a single generator can be shared by 
+ * several encoding threads. The neighbors of a given index are always the 
+ * same whichever thread asks for them first. <br>
+ * <br>
+ * The above is the {@link Version#SEQUENTIAL} stream. The 
+ * {@link Version#COUNTER} stream instead derives the neighbors of frame 
+ * {@code i} directly from {@code (seed, i)} with a stateless 
+ * {@code SplitMix64}, so {@link #get(int)} is O(degree) whatever the index, 
+ * nothing is stored and no lock is needed. The two streams give different 
+ * neighbors, so both ends must use the same version. <br>
+ * <br>
+ * The unique neighbor indexes are picked by a {@code UniqueSampler}: 
+ * {@code UniqueRNG} for the sequential stream unless another one is given, 
+ * and a {@code FloydSampler} for the counter stream. 
  * 
  * @author R Wang
  *
  */
 public class NeighborGenerator implements AutoCloseable {
+	
+	/**
+	 * Version of the random stream used to derive the neighbors
+	 */
+	public enum Version {
+		/** Original stream, replayed sequentially from index 0 and stored */
+		SEQUENTIAL,
+		/** Stateless stream, each index derived on its own */
+		COUNTER
+	}
+	
 	/** XOR with seed to make RNG and Soliton RNG with different seeds */
 	public static final long SOLITON_SEED = 0x3062470030624770l;
 	public static final double DEFAULT_C = 0.2;
 	public static final double DEFAULT_FAILURE_PROBABILITY = 0.02; //2%
 	public static final int DEFAULT_SPIKE = 50;
 
-	private final UniqueRNG uniformRNG;
-	private final RobustSolitonGenerator solitonRNG;
+	/** One sampler per thread for the counter stream, reseeded for each frame */
+	private static final ThreadLocal<FloydSampler> FLOYD = ThreadLocal.withInitial(() -> new FloydSampler(0));
+
+	private final UniqueSampler uniformRNG;
+	private final DegreeGenerator solitonRNG;
 	private final long seed;
 	/** Total number of packets */
 	private final int nPackets;
 	/** Index of this neighbor packet */
 	private long index = -1;
+	/** If the first nPackets indexes are the source frames */
+	private final boolean systematic;
+	private final Version version;
 	
 	/**
 	 * List of all previously generated neighbors are stored for 
-	 * later reference
+	 * later reference. Not used by the counter stream
 	 */
-	private List<int[]> neighbors = new ArrayList<>();
+	private List<int[]> neighbors;
 	
 	/**
 	 * Initialize with custom parameters
@@ -52,14 +90,86 @@ public class NeighborGenerator implements AutoCloseable {
 	 * @param failureProbability
 	 */
 	public NeighborGenerator(long seed, int nPackets, int spike, double failureProbability) {
+		this(seed, nPackets, spike, failureProbability, false);
+	}
+	
+	/**
+	 * Initialize with custom parameters
+	 * @param seed
+	 * @param nPackets Number of packets in the source
+	 * @param spike Spike position is the second peak of probability 
+	 * @param failureProbability
+	 * @param systematic If the first nPackets indexes are the source frames
+	 */
+	public NeighborGenerator(long seed, int nPackets, int spike, double failureProbability, boolean systematic) {
+		this(seed, nPackets, spike, failureProbability, systematic, Version.SEQUENTIAL);
+	}
+	
+	/**
+	 * Initialize with custom parameters
+	 * @param seed
+	 * @param nPackets Number of packets in the source
+	 * @param spike Spike position is the second peak of probability 
+	 * @param failureProbability
+	 * @param systematic If the first nPackets indexes are the source frames
+	 * @param version Random stream to use
+	 */
+	public NeighborGenerator(long seed, int nPackets, int spike, double failureProbability, boolean systematic, Version version) {
+		this(seed, nPackets, 
+				new RobustSolitonGenerator(
+						nPackets, 
+						spike > 0 ? spike : 1, 
+						failureProbability, 
+						seed ^ SOLITON_SEED), 
+				systematic, version, 
+				version == Version.SEQUENTIAL ? new UniqueRNG(seed) : null);
+	}
+	
+	/**
+	 * Initialize with another degree distribution, e.g. the 
+	 * {@code WeakenedSolitonGenerator} of a precoded stream
+	 * @param seed
+	 * @param nPackets Number of packets in the source
+	 * @param degrees Seeded with {@code seed ^ SOLITON_SEED} by convention
+	 * @param systematic If the first nPackets indexes are the source frames
+	 * @param version Random stream to use
+	 */
+	public NeighborGenerator(long seed, int nPackets, DegreeGenerator degrees, boolean systematic, Version version) {
+		this(seed, nPackets, degrees, systematic, version, 
+				version == Version.SEQUENTIAL ? new UniqueRNG(seed) : null);
+	}
+	
+	/**
+	 * Sequential stream with another sampler than {@code UniqueRNG}, e.g. 
+	 * {@code new FloydSampler(seed)}. The neighbors are different from the 
+	 * default ones, so both ends must use the same sampler
+	 * @param seed
+	 * @param nPackets Number of packets in the source
+	 * @param spike Spike position is the second peak of probability 
+	 * @param failureProbability
+	 * @param systematic If the first nPackets indexes are the source frames
+	 * @param sampler Already seeded, only used by this generator
+	 */
+	public NeighborGenerator(long seed, int nPackets, int spike, double failureProbability, boolean systematic, UniqueSampler sampler) {
+		this(seed, nPackets, 
+				new RobustSolitonGenerator(
+						nPackets, 
+						spike > 0 ? spike : 1, 
+						failureProbability, 
+						seed ^ SOLITON_SEED), 
+				systematic, Version.SEQUENTIAL, sampler);
+	}
+	
+	private NeighborGenerator(long seed, int nPackets, DegreeGenerator degrees, boolean systematic, Version version, UniqueSampler sampler) {
 		this.seed = seed;
 		this.nPackets = nPackets;
-		uniformRNG = new UniqueRNG(seed);
-		solitonRNG = new RobustSolitonGenerator(
-				nPackets, 
-				spike > 0 ? spike : 1, 
-				failureProbability, 
-				seed ^ SOLITON_SEED);
+		this.systematic = systematic;
+		this.version = version;
+		if (version == Version.SEQUENTIAL) {
+			neighbors = new ArrayList<>();
+		}
+		uniformRNG = sampler;
+		solitonRNG = degrees;
 	}
 	
 	/**
@@ -70,11 +180,36 @@ public class NeighborGenerator implements AutoCloseable {
 	 * @param nPackets
 	 */
 	public NeighborGenerator(long seed, int nPackets) {
+		this(seed, nPackets, false);
+	}
+	
+	/**
+	 * Initialize with all default parameters, see 
+	 * {@link #NeighborGenerator(long, int)}
+	 * @param seed 
+	 * @param nPackets
+	 * @param systematic If the first nPackets indexes are the source frames
+	 */
+	public NeighborGenerator(long seed, int nPackets, boolean systematic) {
+		this(seed, nPackets, systematic, Version.SEQUENTIAL);
+	}
+	
+	/**
+	 * Initialize with all default parameters, see 
+	 * {@link #NeighborGenerator(long, int)}
+	 * @param seed 
+	 * @param nPackets
+	 * @param systematic If the first nPackets indexes are the source frames
+	 * @param version Random stream to use
+	 */
+	public NeighborGenerator(long seed, int nPackets, boolean systematic, Version version) {
 		this(
 				seed, 
 				nPackets, 
 				(int) Math.ceil(Math.log(nPackets) * Math.log(nPackets)), // Quick and dirty way to get a spike that feels right
-				DEFAULT_FAILURE_PROBABILITY);
+				DEFAULT_FAILURE_PROBABILITY,
+				systematic,
+				version);
 	}
 	
 	/**
@@ -94,47 +229,129 @@ public class NeighborGenerator implements AutoCloseable {
 		return index;
 	}
 	
+	public boolean isSystematic() {
+		return systematic;
+	}
+	
+	public Version getVersion() {
+		return version;
+	}
+	
 	/**
 	 * 
 	 * @return Index of Source frames to be included in the next encoded frame
 	 */
-	public int[] getNext() {
+	public synchronized int[] getNext() {
 		index++;
+		return get((int) index);
+	}
+	
+	/**
+	 * Generate and store the neighbors of the next random frame
+	 */
+	private void generate() {
 		int neighborCount = solitonRNG.next(); // If d = 1, this is entry point 
-		int[] arr = uniformRNG.nextInts(nPackets, neighborCount);
+		int[] arr = new int[neighborCount];
+		uniformRNG.nextInts(nPackets, neighborCount, arr);
 		neighbors.add(arr);
-		return arr;
 	}
 	
 	/**
 	 * Get all neighbors setting from index 0 to minTargetIndex. If there are more 
-	 * blocks generated, later blocks are returned as well. 
+	 * blocks generated, later blocks are returned as well. The list is a 
+	 * snapshot, it won't grow with later calls
 	 * 
 	 * DO NOT ATTEMPT TO MODIFY THE NEIGHBORS IT CAN CAUSE BUGS
 	 * @param minTargetIndex
 	 * @return
 	 */
-	public List<int[]> getAll(int minTargetIndex) {
-		while (neighbors.size() <= minTargetIndex) {
-			getNext();
+	public synchronized List<int[]> getAll(int minTargetIndex) {
+		List<int[]> all = new ArrayList<>();
+		if (version == Version.COUNTER) { // Nothing stored, derive them all
+			for (int i = 0; i <= minTargetIndex; i++) {
+				all.add(get(i));
+			}
+			return Collections.unmodifiableList(all);
 		}
-		return Collections.unmodifiableList(neighbors);
+		get(minTargetIndex);
+		if (systematic) {
+			for (int i = 0; i < nPackets; i++) {
+				all.add(new int[] {i});
+			}
+		}
+		all.addAll(neighbors);
+		return Collections.unmodifiableList(all);
 	}
 	
 	/**
 	 * Get the neighbors of encoded frame at specific index
 	 * @param index
-	 * @return
+	 * @return null if the frames of a sequential stream were released by 
+	 * {@link #close()}
 	 */
 	public int[] get(int index) {
-		while (neighbors.size() <= index) {
-			getNext();
+		if (systematic) {
+			if (index < nPackets) {
+				return new int[] {index}; // Source frame as is
+			}
+			index -= nPackets;
+		}
+		if (version == Version.COUNTER) {
+			return derive(index);
 		}
-		return neighbors.get(index);
+		synchronized (this) {
+			if (neighbors == null) {
+				return null;
+			}
+			while (neighbors.size() <= index) {
+				generate();
+			}
+			return neighbors.get(index);
+		}
+	}
+	
+	/**
+	 * Neighbors of a random frame of the counter stream, depending only on 
+	 * the seed and index. The degree is sampled from the same robust soliton 
+	 * distribution, and the neighbors with Floyd's algorithm
+	 * @param index Index of the random frame, i.e. after the systematic ones
+	 * @return
+	 */
+	private int[] derive(int index) {
+		FloydSampler rng = FLOYD.get();
+		rng.setSeed(SplitMix64.mix64(seed + SplitMix64.GOLDEN_GAMMA * (index + 1l)));
+		int degree = Math.min(nPackets, solitonRNG.degree(rng.nextDouble()));
+		int[] arr = new int[degree];
+		rng.nextInts(nPackets, degree, arr);
+		return arr;
+	}
+	
+	/**
+	 * Get the neighbors of {@code count} consecutive encoded frames, under a 
+	 * single lock for the sequential stream. The counter stream takes no 
+	 * lock
+	 * @param index First index
+	 * @param count
+	 * @return
+	 */
+	public int[][] get(int index, int count) {
+		int[][] arr = new int[count][];
+		if (version == Version.COUNTER) {
+			for (int i = 0; i < count; i++) {
+				arr[i] = get(index + i);
+			}
+			return arr;
+		}
+		synchronized (this) {
+			for (int i = 0; i < count; i++) {
+				arr[i] = get(index + i);
+			}
+		}
+		return arr;
 	}
 
 	@Override
-	public void close() {
+	public synchronized void close() {
 		neighbors = null;
 	}
 	
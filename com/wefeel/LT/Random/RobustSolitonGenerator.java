@@ -1,5 +1,7 @@
 package com.wefeel.LT.Random;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
 
 /**
@@ -29,7 +31,23 @@ import java.util.Random;
  * {@link https://github.com/k13n/soliton_distribution}
  *
  */
-public class RobustSolitonGenerator {
+public class RobustSolitonGenerator implements DegreeGenerator {
+	
+	/** Number of distinct tables kept in the shared cache */
+	private static final int TABLE_CACHE_SIZE = 16;
+	/** 
+	 * Tables are shared by all generators with the same parameters, as 
+	 * every encoder and decoder of a stream builds the same distribution. 
+	 * Least recently used tables are dropped first
+	 */
+	private static final Map<TableKey, Table> TABLES = new LinkedHashMap<TableKey, Table>(TABLE_CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<TableKey, Table> eldest) {
+			return size() > TABLE_CACHE_SIZE;
+		}
+	};
 	
 	private Random random;
 	private int nrBlocks; // k
@@ -39,6 +57,8 @@ public class RobustSolitonGenerator {
 	private double c;
 	private double R;
 	private final long seed;
+	/** Cumulative distribution, {@code cdf[i - 1]} is the probability of a degree {@code <= i} */
+	private double[] cdf;
 
 	/**
 	 * 
@@ -55,7 +75,7 @@ public class RobustSolitonGenerator {
 		random = new Random(seed);
 		R = computeR();
 		spike = computeSpikePosition();
-		normalizationFactor = computeNormalizationFactor();
+		initTable();
 	}
 
 	/**
@@ -92,7 +112,7 @@ public class RobustSolitonGenerator {
 		this.seed = seed;
 		random = new Random(seed);
 		R = nrBlocks / ((double) spike);
-		normalizationFactor = computeNormalizationFactor();
+		initTable();
 	}
 	
 	/**
@@ -103,6 +123,16 @@ public class RobustSolitonGenerator {
 		double u = random.nextDouble();
 		return inverseTransformSampling(u);
 	}
+	
+	/**
+	 * Degree for a given uniform value, without touching the internal random 
+	 * generator. Safe to call from several threads
+	 * @param u Uniform in [0, 1)
+	 * @return
+	 */
+	public int degree(double u) {
+		return inverseTransformSampling(u);
+	}
 
 	/**
 	 * Get the seed of this generator
@@ -126,10 +156,67 @@ public class RobustSolitonGenerator {
 			sum += idealSoliton(i) + unnormalizedRobustSoliton(i);
 		return sum;
 	}
+	
+	/**
+	 * Get the normalization factor and CDF from the shared cache, or build 
+	 * them if this is the first generator with these parameters
+	 */
+	private void initTable() {
+		TableKey key = new TableKey(nrBlocks, spike, R, failureProbability);
+		Table table;
+		synchronized (TABLES) {
+			table = TABLES.get(key);
+		}
+		if (table == null) {
+			// Built outside the lock, at worst twice for the same parameters
+			normalizationFactor = computeNormalizationFactor();
+			table = new Table(normalizationFactor, computeCdf());
+			synchronized (TABLES) {
+				TABLES.put(key, table);
+			}
+		}
+		normalizationFactor = table.normalizationFactor;
+		cdf = table.cdf;
+	}
+	
+	/**
+	 * Sum the distribution in the exact same order as the linear search 
+	 * used to, so that the sampled degrees are bit for bit identical
+	 * @return
+	 */
+	private double[] computeCdf() {
+		double[] arr = new double[nrBlocks];
+		double sum = 0;
+		for (int i = 1; i <= nrBlocks; i++) {
+			sum += normalizedRobustSoliton(i);
+			arr[i - 1] = sum;
+		}
+		return arr;
+	}
 
+	/**
+	 * Smallest degree {@code d} with {@code CDF(d) > u}, found with a binary 
+	 * search in the precomputed CDF
+	 * @param u
+	 * @return
+	 */
 	private int inverseTransformSampling(double u) {
-		double sum = 0;
-		int index = 1;
+		int low = 0, high = cdf.length; // Search in [low, high)
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cdf[mid] <= u) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		if (low < cdf.length) {
+			return low + 1;
+		}
+		// Rounding errors can leave the CDF slightly below 1, continue the 
+		// sum past nrBlocks the same way as the original linear search did
+		double sum = cdf.length == 0 ? 0 : cdf[cdf.length - 1];
+		int index = cdf.length + 1;
 		while (sum <= u)
 			sum += normalizedRobustSoliton(index++);
 		return index - 1;
@@ -158,5 +245,44 @@ public class RobustSolitonGenerator {
 	public int getSpike() {
 		return spike;
 	}
+	
+	/**
+	 * Parameters that fully define a distribution
+	 */
+	private static final class TableKey {
+		private final int nrBlocks;
+		private final int spike;
+		private final long r;
+		private final long failureProbability;
+		
+		TableKey(int nrBlocks, int spike, double r, double failureProbability) {
+			this.nrBlocks = nrBlocks;
+			this.spike = spike;
+			this.r = Double.doubleToLongBits(r);
+			this.failureProbability = Double.doubleToLongBits(failureProbability);
+		}
+
+		@Override
+		public int hashCode() {
+			return ((nrBlocks * 31 + spike) * 31 + Long.hashCode(r)) * 31 + Long.hashCode(failureProbability);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TableKey)) return false;
+			TableKey o = (TableKey) obj;
+			return nrBlocks == o.nrBlocks && spike == o.spike && r == o.r && failureProbability == o.failureProbability;
+		}
+	}
+	
+	private static final class Table {
+		private final double normalizationFactor;
+		private final double[] cdf;
+		
+		Table(double normalizationFactor, double[] cdf) {
+			this.normalizationFactor = normalizationFactor;
+			this.cdf = cdf;
+		}
+	}
 
 }
@@ -0,0 +1,71 @@
+package com.wefeel.LT.Random;
+
+/**
+ * A tiny SplitMix64 generator. <br>
+ * <br>
+ * Unlike {@code java.util.Random} it is not synchronized and has no atomic
+ * seed, so it's cheap to create one per frame. {@link #mix64(long)} on its
+ * own is a good stateless hash, used to derive the seed of each frame from
+ * the stream seed and the frame index. <br>
+ * <br>
+ * The output is fixed by the algorithm, so it's the same on every platform.
+ * @author R Wang
+ *
+ */
+public class SplitMix64 {
+
+	/** Increment of the state, the golden ratio as a 64 bit fraction */
+	public static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15l;
+
+	private long state;
+
+	public SplitMix64(long seed) {
+		this.state = seed;
+	}
+
+	public void setSeed(long seed) {
+		this.state = seed;
+	}
+
+	public long nextLong() {
+		return mix64(state += GOLDEN_GAMMA);
+	}
+
+	/**
+	 *
+	 * @return Uniform double in [0, 1)
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * Uniform int in [0, bound), without bias (Lemire's multiply and reject)
+	 * @param bound Must be positive
+	 * @return
+	 */
+	public int nextInt(int bound) {
+		long m = (nextLong() >>> 32) * bound;
+		long low = m & 0xFFFFFFFFl;
+		if (low < bound) {
+			long threshold = (0x100000000l - bound) % bound;
+			while (low < threshold) {
+				m = (nextLong() >>> 32) * bound;
+				low = m & 0xFFFFFFFFl;
+			}
+		}
+		return (int) (m >>> 32);
+	}
+
+	/**
+	 * The SplitMix64 finalizer, a bijective mix of all bits
+	 * @param z
+	 * @return
+	 */
+	public static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9l;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBl;
+		return z ^ (z >>> 31);
+	}
+
+}
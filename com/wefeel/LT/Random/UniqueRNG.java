@@ -1,18 +1,35 @@
 package com.wefeel.LT.Random;
 
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
 
 /**
- * Generate an array of non-repeating random integer
+ * Generate an array of non-repeating random integer <br>
+ * <br>
+ * The output is the same as {@code java.util.Random} would give, but the 
+ * seed is a plain field instead of an {@code AtomicLong}, so unlike 
+ * {@code Random} this class is NOT thread safe. Working arrays are kept 
+ * between calls. 
  * @author RWang
  * 
  *
  */
-public class UniqueRNG extends Random {
+public class UniqueRNG extends Random implements UniqueSampler {
+	
+	private static final long MULTIPLIER = 0x5DEECE66Dl;
+	private static final long ADDEND = 0xBl;
+	private static final long MASK = (1l << 48) - 1;
+	/** Below this many values, duplicates are found by scanning the output */
+	static final int BITSET_THRESHOLD = 64;
+	
+	/** Same LCG state as {@code Random}, set by {@code Random}'s constructor through {@link #setSeed(long)} */
+	private long state;
+	/** Permutation of the large count path */
+	private int[] perm = new int[0];
+	/** Bitset of values already taken by the small count path */
+	private long[] bits = new long[0];
 	
 	public UniqueRNG() {
 		super();
@@ -22,6 +39,18 @@ public class UniqueRNG extends Random {
 		super(seed);
 	}
 	
+	@Override
+	public synchronized void setSeed(long seed) {
+		super.setSeed(seed);
+		state = (seed ^ MULTIPLIER) & MASK;
+	}
+	
+	@Override
+	protected int next(int bits) {
+		state = (state * MULTIPLIER + ADDEND) & MASK;
+		return (int) (state >>> (48 - bits));
+	}
+	
 	/**
 	 * Get an array of random but unique int from 0 (inclusive) to {@code max} exclusive 
 	 * @param max Maximum value of integer to return
@@ -29,6 +58,19 @@ public class UniqueRNG extends Random {
 	 * @return int[]
 	 */
 	public int[] nextInts(int max, int count) {
+		int[] c = new int[count];
+		nextInts(max, count, c);
+		return c;
+	}
+	
+	/**
+	 * Same as {@link #nextInts(int, int)}, writing into {@code out}
+	 * @param max Maximum value of integer to return
+	 * @param count Number of ints to return
+	 * @param out At least {@code count} long
+	 */
+	@Override
+	public void nextInts(int max, int count, int[] out) {
 		if (count > max) {
 			throw new RuntimeException("More random value required than possible");
 		}
@@ -37,33 +79,52 @@ public class UniqueRNG extends Random {
 		// If numbers to get is only a tiny fraction of the max value, it's 
 		// likely much faster to simply repeat only when duplicates are found
 		if (count < 200 || (((double) count) / max) < 0.1) {
-			int[] c = new int[count];
+			int[] c = out;
 			int i = 0; 
-			outer:
-			while (i < count) {
-				c[i] = nextInt(max);
-				for (int j = 0; j < i; j++) {
-					if (c[j] == c[i]) continue outer; // retry if any duplicate found
+			if (count < BITSET_THRESHOLD) {
+				outer:
+				while (i < count) {
+					c[i] = nextInt(max);
+					for (int j = 0; j < i; j++) {
+						if (c[j] == c[i]) continue outer; // retry if any duplicate found
+					}
+					i++; // Only increment if there's no duplicate
 				}
-				i++; // Only increment if there's no duplicate
+				return;
+			}
+			// Same draws and retries, but a bitset instead of the O(count^2) scan
+			int words = (max + 63) >>> 6;
+			if (bits.length < words) {
+				bits = new long[words];
+			}
+			long[] b = bits;
+			while (i < count) {
+				int v = nextInt(max);
+				if ((b[v >>> 6] & (1l << v)) != 0) continue; // retry if duplicate
+				b[v >>> 6] |= 1l << v;
+				c[i++] = v;
+			}
+			for (i = 0; i < count; i++) {
+				b[c[i] >>> 6] = 0;
 			}
-			return c;
 		} else { /*if (count * 2 >= max) {*/ 
 			// probably asking too many unique numbers here, use a list of unique number
 			// and shuffle. This may cause problem if max is too large but we're using 
 			// int here, wouldn't be more than a few GiB...
-			int[] rnd = new int[max];
+			// The stream used to fill a permutation here that was never read. 
+			// It's gone, but its draws are kept so the output doesn't change
 			for (int i = 1; i < max; i++) {
-				int j = nextInt(i);
-				rnd[i] = rnd[j];
-				rnd[j] = i;
+				nextInt(i);
+			}
+			if (perm.length < max) {
+				perm = new int[max];
 			}
-			int[] arr = new int[max];
+			int[] arr = perm;
 			for (int i = 0; i < max; i++) {
 				arr[i] = i;
 			}
-			shuffle(arr);
-			return Arrays.copyOfRange(arr, 0, count);
+			shuffle(arr, max);
+			System.arraycopy(arr, 0, out, 0, count);
 		} 
 //		else { 
 //			// DEBUG 
@@ -106,8 +167,17 @@ public class UniqueRNG extends Random {
 	 * @param arr
 	 */
 	protected void shuffle(int[] arr) {
+		shuffle(arr, arr.length);
+	}
+	
+	/**
+	 * Shuffle the first {@code length} elements of the given array
+	 * @param arr
+	 * @param length
+	 */
+	protected void shuffle(int[] arr, int length) {
 		int index, temp;
-		for (int i = arr.length - 1; i > 0; i--) {
+		for (int i = length - 1; i > 0; i--) {
 			index = nextInt(i + 1);
 			temp = arr[i];
 			arr[i] = arr[index];
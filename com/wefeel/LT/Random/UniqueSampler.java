@@ -0,0 +1,23 @@
+package com.wefeel.LT.Random;
+
+/**
+ * Strategy to pick non-repeating random integers, see 
+ * {@code NeighborGenerator}. <br>
+ * <br>
+ * Implementations write into a buffer given by the caller and may keep 
+ * scratch space between calls, so they are not thread safe.
+ * @author R Wang
+ *
+ */
+public interface UniqueSampler {
+
+	/**
+	 * Fill {@code out[0, count)} with random but unique ints from 0 
+	 * (inclusive) to {@code max} exclusive
+	 * @param max Maximum value of integer to return
+	 * @param count Number of ints to return
+	 * @param out At least {@code count} long
+	 */
+	void nextInts(int max, int count, int[] out);
+
+}
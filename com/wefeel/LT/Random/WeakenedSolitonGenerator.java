@@ -0,0 +1,89 @@
+package com.wefeel.LT.Random;
+
+import java.util.Random;
+
+/**
+ * Degree distribution of the LT stage of a precoded stream, from 
+ * Maymounkov's online codes. <br>
+ * <br>
+ * The robust soliton distribution has to recover every single source frame 
+ * on its own, which is what costs so much overhead. Once a precode can 
+ * repair the last few missing symbols, the LT stage only needs to recover 
+ * most of them, and the degree can be capped at a small {@code F}: <br>
+ * {@code p(1) = 1 - (1 + 1/F) / (1 + e)} <br>
+ * {@code p(i) = (1 - p(1)) F / ((F - 1) i (i - 1))} for {@code 2 <= i <= F} <br>
+ * <br>
+ * where {@code F = ceil(ln(e^2 / 4) / ln(1 - e / 2))}. A frame has about 
+ * {@code ln(F)} neighbors on average, instead of {@code ln(k)} and more.
+ * @author R Wang
+ *
+ */
+public class WeakenedSolitonGenerator implements DegreeGenerator {
+
+	public static final double DEFAULT_EPSILON = 0.03;
+
+	private final Random random;
+	private final double epsilon;
+	private final long seed;
+	/** Cumulative distribution, {@code cdf[i - 1]} is the probability of a degree {@code <= i} */
+	private final double[] cdf;
+
+	/**
+	 * 
+	 * @param nrBlocks Number of symbols covered, the degree is never above it
+	 * @param epsilon Fraction of symbols the LT stage may leave to the precode
+	 * @param seed nonce to recreate random stream
+	 */
+	public WeakenedSolitonGenerator(int nrBlocks, double epsilon, long seed) {
+		this.epsilon = epsilon;
+		this.seed = seed;
+		random = new Random(seed);
+		int f = (int) Math.ceil(Math.log(epsilon * epsilon / 4) / Math.log(1 - epsilon / 2));
+		f = Math.max(2, Math.min(f, nrBlocks));
+		cdf = new double[f];
+		double p1 = 1 - (1 + 1.0 / f) / (1 + epsilon);
+		double sum = p1;
+		cdf[0] = sum;
+		for (int i = 2; i <= f; i++) {
+			sum += (1 - p1) * f / ((f - 1.0) * i * (i - 1));
+			cdf[i - 1] = sum;
+		}
+	}
+
+	@Override
+	public int next() {
+		return degree(random.nextDouble());
+	}
+
+	@Override
+	public int degree(double u) {
+		int low = 0, high = cdf.length; // Search in [low, high)
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cdf[mid] <= u) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		// The last entry may be a rounding error below 1
+		return Math.min(low + 1, cdf.length);
+	}
+
+	/**
+	 * 
+	 * @return Largest degree
+	 */
+	public int getMaxDegree() {
+		return cdf.length;
+	}
+
+	public double getEpsilon() {
+		return epsilon;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+}
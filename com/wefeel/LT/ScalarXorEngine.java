@@ -0,0 +1,48 @@
+package com.wefeel.LT;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The plain byte by byte XOR. Slowest of all, but works everywhere.
+ * @author R Wang
+ *
+ */
+public class ScalarXorEngine extends XorEngine {
+
+	@Override
+	public void xor(byte[] target, int targetOffset, byte[] src, int srcOffset, int len) {
+		for (int i = 0; i < len; i++) {
+			target[targetOffset + i] ^= src[srcOffset + i];
+		}
+	}
+
+	@Override
+	public void xor(byte[] target, int targetOffset, ByteBuffer src, int srcIndex, int len) {
+		for (int i = 0; i < len; i++) {
+			target[targetOffset + i] ^= src.get(srcIndex + i);
+		}
+	}
+
+	@Override
+	public void xor(ByteBuffer target, int targetIndex, byte[] src, int srcOffset, int len) {
+		for (int i = 0; i < len; i++) {
+			target.put(targetIndex + i, (byte) (target.get(targetIndex + i) ^ src[srcOffset + i]));
+		}
+	}
+
+	@Override
+	public void xor(ByteBuffer target, int targetIndex, ByteBuffer src, int srcIndex, int len) {
+		for (int i = 0; i < len; i++) {
+			target.put(targetIndex + i, (byte) (target.get(targetIndex + i) ^ src.get(srcIndex + i)));
+		}
+	}
+
+	@Override
+	protected void xor(byte[] target, byte[] a, byte[] b, byte[] c, byte[] d, int len) {
+		xor(target, 0, a, 0, len);
+		xor(target, 0, b, 0, len);
+		if (c != null) xor(target, 0, c, 0, len);
+		if (d != null) xor(target, 0, d, 0, len);
+	}
+
+}
@@ -0,0 +1,431 @@
+package com.wefeel.LT;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Decode many objects received on the same socket at once. <br>
+ * <br>
+ * Frames are routed to one session per nonce, created from the first frame 
+ * of the object like {@code Decoder} initializes itself: a {@code Decoder}, 
+ * or a {@code BlockDecoder} for {@code FLAG_BLOCK} streams. v2 packets are 
+ * routed by their session id, and a v2 session is created by its announce 
+ * packet. Frames of unknown v2 sessions are dropped. <br>
+ * <br>
+ * Each session reserves its worst case heap when it's created: the decoded 
+ * object plus as many coded frames waiting to be peeled. When the total 
+ * would go over the budget, sessions are evicted to make room, the least 
+ * recently used or least frequently used first depending on the 
+ * {@code Policy}; an object too large for the budget on its own is 
+ * rejected. Sessions idle for longer than the idle timeout are evicted 
+ * whenever a session is created, or by {@link #evictIdle()}. <br>
+ * <br>
+ * A completed session is handed to the callback, by the receiving thread 
+ * that completed it, and forgotten: its reservation is released as soon as 
+ * the callback returns, and frames still arriving for it are dropped. 
+ * Routing is lock free, only creating and evicting sessions takes the 
+ * registry's lock, so it can be fed from several receiving threads. A 
+ * frame routed to a session while it's evicted is dropped by its closed 
+ * decoder.
+ * @author R Wang
+ *
+ */
+public class SessionRegistry implements AutoCloseable {
+
+	/**
+	 * Under a steady fan-in of more objects than fit, LRU keeps evicting 
+	 * sessions that are about to get frames again and hardly completes any, 
+	 * while LFU evicts the newcomers and lets the others finish. LRU suits 
+	 * senders that come and go
+	 */
+	public enum Policy {
+		/** Evict the session that received a frame the longest time ago */
+		LRU,
+		/** Evict the session that received the fewest frames */
+		LFU
+	}
+
+	/** Number of completed nonces remembered to drop their late frames */
+	public static final int COMPLETED_HISTORY = 1024;
+
+	private final long budget;
+	private final Policy policy;
+	private final Consumer<Session> onComplete;
+	private long idleTimeout = Long.MAX_VALUE;
+
+	private final ConcurrentHashMap<Long, Session> byNonce = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, Session> byId = new ConcurrentHashMap<>();
+	/** Nonces completed lately, guarded by this */
+	private final Map<Long, Boolean> completed = new LinkedHashMap<Long, Boolean>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+			return size() > COMPLETED_HISTORY;
+		}
+	};
+	/** Sum of the reservations of live sessions, guarded by this */
+	private long reserved;
+
+	private final LongAdder created = new LongAdder();
+	private final LongAdder completedCount = new LongAdder();
+	private final LongAdder evicted = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * 
+	 * @param budget Bytes of heap all sessions can reserve together
+	 * @param policy Which session to evict when over budget
+	 * @param onComplete Given each object once decoded
+	 */
+	public SessionRegistry(long budget, Policy policy, Consumer<Session> onComplete) {
+		this.budget = budget;
+		this.policy = policy;
+		this.onComplete = onComplete;
+	}
+
+	/**
+	 * 
+	 * @param timeout Sessions without a frame for that long are evicted, 
+	 * never by default
+	 * @param unit
+	 */
+	public void setIdleTimeout(long timeout, TimeUnit unit) {
+		this.idleTimeout = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Route a frame or a v2 packet to its session
+	 * @param encoded
+	 */
+	public void frameReceived(byte[] encoded) {
+		frameReceived(ByteBuffer.wrap(encoded));
+	}
+
+	/**
+	 * Route a frame or a v2 packet, from the position to the limit of a 
+	 * buffer, to its session. The buffer is neither kept nor moved
+	 * @param encoded
+	 */
+	public void frameReceived(ByteBuffer encoded) {
+		Session s;
+		if (WireFormat.isV2(encoded)) {
+			s = byId.get(WireFormat.session(encoded));
+			if (s == null && WireFormat.type(encoded) == WireFormat.TYPE_ANNOUNCE) {
+				WireFormat.Announce a = WireFormat.Announce.read(encoded);
+				if (a != null) {
+					s = admit(a.nonce, a.objectSize, a.flags, a.frameSize, a.blockCount);
+				}
+			}
+		} else if (encoded.remaining() >= EncodedFrame.HEADER_SIZE 
+				&& encoded.remaining() >= EncodedFrame.headerSize(BufferEncodedFrame.readFlags(encoded))) {
+			long nonce = BufferEncodedFrame.readNonce(encoded);
+			int flags = BufferEncodedFrame.readFlags(encoded);
+			// The frame size of a v1 stream is only known from the length of its frames
+			int frameSize = encoded.remaining() - EncodedFrame.headerSize(flags);
+			s = byNonce.get(nonce);
+			if (s == null) {
+				s = admit(nonce, 
+						BufferEncodedFrame.readFilesize(encoded), 
+						flags, 
+						frameSize, 
+						(flags & EncodedFrame.FLAG_BLOCK) != 0 ? BufferEncodedFrame.readBlockCount(encoded) : 1);
+			} else if (frameSize != s.frameSize) {
+				s = null; // Truncated, don't let it reach the decoder
+			}
+		} else {
+			s = null;
+		}
+		if (s == null) {
+			dropped.increment();
+			return;
+		}
+		s.lastUsed = System.nanoTime();
+		s.frames.increment();
+		if (s.decoder != null) {
+			s.decoder.frameReceived(encoded);
+		} else {
+			s.blockDecoder.frameReceived(encoded);
+		}
+		if (s.finished() && s.done.compareAndSet(false, true)) {
+			completedCount.increment();
+			try {
+				onComplete.accept(s);
+			} finally {
+				release(s, true);
+			}
+		}
+	}
+
+	/**
+	 * Find or create the session of an object
+	 * @return null if it's completed already, invalid or too large for the 
+	 * budget
+	 */
+	private synchronized Session admit(long nonce, long objectSize, int flags, int frameSize, int blockCount) {
+		Session s = byNonce.get(nonce);
+		if (s != null) {
+			return s; // Created by another receiving thread
+		}
+		if (completed.containsKey(nonce)) {
+			return null;
+		}
+		if (!WireFormat.isValidObject(objectSize, flags, frameSize, blockCount)) {
+			rejected.increment();
+			return null;
+		}
+		long need = footprint(objectSize, frameSize);
+		evictIdle();
+		if (need > budget) {
+			rejected.increment();
+			return null;
+		}
+		Session victim;
+		while (reserved + need > budget && (victim = victim()) != null) {
+			evict(victim);
+		}
+		try {
+			s = new Session(nonce, objectSize, flags, frameSize, blockCount, need);
+		} catch (RuntimeException e) {
+			rejected.increment(); // Forged header the checks above missed, never thrown to the receiver
+			return null;
+		}
+		reserved += need;
+		byNonce.put(nonce, s);
+		byId.put(s.id, s);
+		created.increment();
+		return s;
+	}
+
+	/**
+	 * 
+	 * @param objectSize
+	 * @param frameSize
+	 * @return Bytes reserved by a session: the decoded frames, and about as 
+	 * many coded frames at most waiting to be peeled
+	 */
+	static long footprint(long objectSize, int frameSize) {
+		return 2 * ((objectSize + frameSize - 1) / frameSize) * frameSize;
+	}
+
+	private Session victim() {
+		Session victim = null;
+		for (Session s : byNonce.values()) {
+			if (victim == null 
+					|| (policy == Policy.LRU ? s.lastUsed < victim.lastUsed : s.frames.sum() < victim.frames.sum())) {
+				victim = s;
+			}
+		}
+		return victim;
+	}
+
+	/**
+	 * Evict the sessions idle for longer than the idle timeout
+	 */
+	public synchronized void evictIdle() {
+		if (idleTimeout == Long.MAX_VALUE) {
+			return;
+		}
+		long now = System.nanoTime();
+		List<Session> idle = new ArrayList<>();
+		for (Session s : byNonce.values()) {
+			if (now - s.lastUsed > idleTimeout) {
+				idle.add(s);
+			}
+		}
+		for (Session s : idle) {
+			evict(s);
+		}
+	}
+
+	private void evict(Session s) {
+		if (s.done.compareAndSet(false, true)) {
+			evicted.increment();
+			release(s, false);
+			s.close();
+		}
+	}
+
+	private synchronized void release(Session s, boolean complete) {
+		if (byNonce.remove(s.nonce, s)) {
+			byId.remove(s.id, s);
+			reserved -= s.reserved;
+			if (complete) {
+				completed.put(s.nonce, Boolean.TRUE);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param nonce
+	 * @return The live session of this nonce, or null
+	 */
+	public Session getSession(long nonce) {
+		return byNonce.get(nonce);
+	}
+
+	/**
+	 * 
+	 * @return Number of live sessions
+	 */
+	public int getSessionCount() {
+		return byNonce.size();
+	}
+
+	/**
+	 * 
+	 * @return Bytes reserved by live sessions, never over the budget
+	 */
+	public synchronized long getReserved() {
+		return reserved;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public long getCreatedCount() {
+		return created.sum();
+	}
+
+	public long getCompletedCount() {
+		return completedCount.sum();
+	}
+
+	public long getEvictedCount() {
+		return evicted.sum();
+	}
+
+	/**
+	 * 
+	 * @return Number of objects too large for the budget, or whose header 
+	 * is invalid
+	 */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	/**
+	 * 
+	 * @return Number of frames without a session: of completed or rejected 
+	 * objects, or of v2 sessions not announced, and v1 frames of the wrong 
+	 * size
+	 */
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Evict all sessions
+	 */
+	@Override
+	public synchronized void close() {
+		for (Session s : new ArrayList<>(byNonce.values())) {
+			evict(s);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("SessionRegistry[%d live, %d/%d bytes, created %d, completed %d, evicted %d, rejected %d, dropped %d]", 
+				getSessionCount(), getReserved(), budget, getCreatedCount(), getCompletedCount(), 
+				getEvictedCount(), getRejectedCount(), getDroppedCount());
+	}
+
+	/**
+	 * The decoder of one object
+	 */
+	public static class Session {
+
+		private final long nonce;
+		private final int id;
+		private final long objectSize;
+		private final int frameSize;
+		/** One of them is set */
+		private final Decoder decoder;
+		private final BlockDecoder blockDecoder;
+		private final long reserved;
+		private volatile long lastUsed = System.nanoTime();
+		private final LongAdder frames = new LongAdder();
+		/** Set once completed or evicted */
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		private Session(long nonce, long objectSize, int flags, int frameSize, int blockCount, long reserved) {
+			this.nonce = nonce;
+			this.objectSize = objectSize;
+			this.frameSize = frameSize;
+			this.reserved = reserved;
+			if ((flags & EncodedFrame.FLAG_BLOCK) != 0) {
+				decoder = null;
+				blockDecoder = new BlockDecoder();
+				blockDecoder.init(nonce, objectSize, frameSize, flags, blockCount);
+			} else {
+				decoder = new Decoder();
+				decoder.init(nonce, objectSize, (int) ((objectSize + frameSize - 1) / frameSize), frameSize, flags);
+				blockDecoder = null;
+			}
+			id = WireFormat.sessionId(nonce, objectSize, flags | (blockDecoder != null ? EncodedFrame.FLAG_BLOCK : 0), frameSize, blockCount);
+		}
+
+		public long getNonce() {
+			return nonce;
+		}
+
+		public long getObjectSize() {
+			return objectSize;
+		}
+
+		public int getFrameSize() {
+			return frameSize;
+		}
+
+		/**
+		 * 
+		 * @return Number of frames routed to this session
+		 */
+		public long getFramesReceived() {
+			return frames.sum();
+		}
+
+		/**
+		 * 
+		 * @return Number of source frames decoded
+		 */
+		public int numFrameDecoded() {
+			return decoder != null ? decoder.numFrameDecoded() : blockDecoder.numFrameDecoded();
+		}
+
+		public boolean finished() {
+			return decoder != null ? decoder.finished() : blockDecoder.finished();
+		}
+
+		public byte[] getDecoded() {
+			return decoder != null ? decoder.getDecoded() : blockDecoder.getDecoded();
+		}
+
+		public InputStream getDecodedAsStream() {
+			return decoder != null ? decoder.getDecodedAsStream() : blockDecoder.getDecodedAsStream();
+		}
+
+		private void close() {
+			if (decoder != null) {
+				decoder.close();
+			} else {
+				blockDecoder.close();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,40 @@
+package com.wefeel.LT.Simulation;
+
+import com.wefeel.LT.Random.SplitMix64;
+
+/**
+ * Each frame is lost independently with the same probability.
+ * @author R Wang
+ *
+ */
+public class BernoulliLoss implements LossModel {
+
+	private final double loss;
+
+	/**
+	 * 
+	 * @param loss Probability of losing a frame, in [0, 1)
+	 */
+	public BernoulliLoss(double loss) {
+		if (!(loss >= 0 && loss < 1)) {
+			throw new IllegalArgumentException("Invalid loss " + loss);
+		}
+		this.loss = loss;
+	}
+
+	@Override
+	public <T> Channel<T> newChannel(long seed) {
+		SplitMix64 random = new SplitMix64(seed);
+		return (frame, deliver) -> {
+			if (random.nextDouble() >= loss) {
+				deliver.accept(frame);
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "bernoulli(" + loss + ")";
+	}
+
+}
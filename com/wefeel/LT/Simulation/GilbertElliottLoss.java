@@ -0,0 +1,81 @@
+package com.wefeel.LT.Simulation;
+
+import com.wefeel.LT.Random.SplitMix64;
+import java.util.function.Consumer;
+
+/**
+ * Bursty loss: the link goes back and forth between a good and a bad 
+ * state, a Markov chain with a loss probability in each state. The state 
+ * changes, or not, before each frame. Each channel starts in the good 
+ * state.
+ * @author R Wang
+ *
+ */
+public class GilbertElliottLoss implements LossModel {
+
+	private final double goodToBad;
+	private final double badToGood;
+	private final double lossGood;
+	private final double lossBad;
+
+	/**
+	 * 
+	 * @param goodToBad Probability of going from the good to the bad state
+	 * @param badToGood Probability of going from the bad to the good state
+	 * @param lossGood Probability of losing a frame in the good state
+	 * @param lossBad Probability of losing a frame in the bad state
+	 */
+	public GilbertElliottLoss(double goodToBad, double badToGood, double lossGood, double lossBad) {
+		if (!(goodToBad >= 0 && goodToBad <= 1 && badToGood > 0 && badToGood <= 1 
+				&& lossGood >= 0 && lossGood < 1 && lossBad >= 0 && lossBad <= 1)) {
+			throw new IllegalArgumentException("Invalid probabilities");
+		}
+		this.goodToBad = goodToBad;
+		this.badToGood = badToGood;
+		this.lossGood = lossGood;
+		this.lossBad = lossBad;
+	}
+
+	/**
+	 * Simple Gilbert model, where every frame is lost in the bad state and 
+	 * none in the good one
+	 * @param loss Average loss, in [0, 1)
+	 * @param burst Average number of frames lost in a row, at least 1
+	 * @return
+	 */
+	public static GilbertElliottLoss ofBursts(double loss, double burst) {
+		double badToGood = 1 / burst;
+		return new GilbertElliottLoss(Math.min(1, loss * badToGood / (1 - loss)), badToGood, 0, 1);
+	}
+
+	/**
+	 * 
+	 * @return Average loss once in the stationary state
+	 */
+	public double getAverageLoss() {
+		double bad = goodToBad / (goodToBad + badToGood);
+		return bad * lossBad + (1 - bad) * lossGood;
+	}
+
+	@Override
+	public <T> Channel<T> newChannel(long seed) {
+		SplitMix64 random = new SplitMix64(seed);
+		return new Channel<T>() {
+			private boolean bad;
+
+			@Override
+			public void send(T frame, Consumer<T> deliver) {
+				bad = random.nextDouble() < (bad ? 1 - badToGood : goodToBad);
+				if (random.nextDouble() >= (bad ? lossBad : lossGood)) {
+					deliver.accept(frame);
+				}
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return String.format("gilbert-elliott(%.4g %.4g %.4g %.4g)", goodToBad, badToGood, lossGood, lossBad);
+	}
+
+}
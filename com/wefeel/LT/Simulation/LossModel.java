@@ -0,0 +1,37 @@
+package com.wefeel.LT.Simulation;
+
+import java.util.function.Consumer;
+
+/**
+ * How frames get lost, or reordered, between an encoder and a decoder. 
+ * Each trial of a simulation opens a channel of its own, so a model can be 
+ * shared by all the trials run in parallel.
+ * @author R Wang
+ *
+ */
+public interface LossModel {
+
+	/**
+	 * 
+	 * @param seed Of the random stream of the channel
+	 * @return A new channel, in its initial state
+	 */
+	<T> Channel<T> newChannel(long seed);
+
+	/**
+	 * State of the link during one trial, used by a single thread
+	 * @param <T> Frame
+	 */
+	interface Channel<T> {
+
+		/**
+		 * Send a frame
+		 * @param frame
+		 * @param deliver Given the frames arriving because of this one, if 
+		 * any, in order
+		 */
+		void send(T frame, Consumer<T> deliver);
+
+	}
+
+}
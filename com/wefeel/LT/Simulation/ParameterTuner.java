@@ -0,0 +1,151 @@
+package com.wefeel.LT.Simulation;
+
+import com.wefeel.LT.CodeParameters;
+import com.wefeel.LT.EncodedFrame;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Search the degree distribution parameters that cost the least for a 
+ * number of source frames. <br>
+ * <br>
+ * Each candidate is simulated, and its cost is the expected reception 
+ * overhead, failed trials counting as the simulator's maximum overhead, 
+ * plus the frame XOR per frame times {@code xorWeight}: the mean degree, 
+ * about what the encoder and peeling do, and what inactivation decoding 
+ * does on top of that. The candidate of least cost is only picked over 
+ * the first one, the default with {@link #grid(double[], int[], double[])}, 
+ * if its cost is lower by more than {@link #SIGNIFICANCE} standard errors 
+ * of the difference of their costs, so noise doesn't move the choice away 
+ * from it. This is how the rows of {@code ParameterTable} are picked, see 
+ * {@code test/ParameterTuning.java}.
+ * @author R Wang
+ *
+ */
+public class ParameterTuner {
+
+	/** Overhead worth one more XOR per frame, i.e. 10 XOR per frame cost as much as 1% more frames */
+	public static final double DEFAULT_XOR_WEIGHT = 0.001;
+	/** Standard errors the best candidate must win by to replace the first one */
+	public static final double SIGNIFICANCE = 2;
+
+	private final Simulator simulator;
+	private final LossModel loss;
+	private final double maxOverhead;
+	private double xorWeight = DEFAULT_XOR_WEIGHT;
+	private int flags = EncodedFrame.FLAG_COUNTER;
+	private final List<Result> results = new ArrayList<>();
+
+	/**
+	 * 
+	 * @param simulator
+	 * @param loss The overhead doesn't depend much on it, but it's simulated 
+	 * anyway
+	 * @param maxOverhead Same as the simulator's, see 
+	 * {@link Simulator#setMaxOverhead(double)}
+	 */
+	public ParameterTuner(Simulator simulator, LossModel loss, double maxOverhead) {
+		this.simulator = simulator;
+		this.loss = loss;
+		this.maxOverhead = maxOverhead;
+	}
+
+	/**
+	 * 
+	 * @param xorWeight Overhead worth one more neighbor per frame on average
+	 */
+	public void setXorWeight(double xorWeight) {
+		this.xorWeight = xorWeight;
+	}
+
+	/**
+	 * 
+	 * @param flags Of the streams simulated, the counter stream by default. 
+	 * {@code FLAG_TUNED} is dropped, the candidates are simulated
+	 */
+	public void setFlags(int flags) {
+		this.flags = flags & ~(EncodedFrame.FLAG_TUNED | EncodedFrame.PARAMETER_ID_MASK);
+	}
+
+	/**
+	 * Grid of candidates, by {@code c} or {@code spike} and by 
+	 * {@code delta}, and the default
+	 * @param cs
+	 * @param spikes Must be less than the k tuned for
+	 * @param deltas
+	 * @return
+	 */
+	public static List<CodeParameters> grid(double[] cs, int[] spikes, double[] deltas) {
+		Set<CodeParameters> candidates = new LinkedHashSet<>();
+		candidates.add(CodeParameters.DEFAULT);
+		for (double delta : deltas) {
+			for (double c : cs) {
+				candidates.add(CodeParameters.withC(c, delta));
+			}
+			for (int spike : spikes) {
+				candidates.add(CodeParameters.withSpike(spike, delta));
+			}
+		}
+		return new ArrayList<>(candidates);
+	}
+
+	/**
+	 * 
+	 * @param k
+	 * @param candidates
+	 * @return The candidate of least cost for k, or the first one if it 
+	 * doesn't cost significantly less
+	 */
+	public CodeParameters tune(int k, List<CodeParameters> candidates) {
+		Result first = null, best = null;
+		for (CodeParameters p : candidates) {
+			Result r = simulator.run(new Scenario(k, Simulator.PAYLOAD_SIZE, flags, p, loss));
+			results.add(r);
+			if (first == null) {
+				first = r;
+			}
+			if (best == null || cost(r, p, k) < cost(best, best.getScenario().getParameters(), k)) {
+				best = r;
+			}
+		}
+		double margin = SIGNIFICANCE * Math.hypot(costStdError(first), costStdError(best));
+		return cost(best, best.getScenario().getParameters(), k) + margin < cost(first, first.getScenario().getParameters(), k) 
+				? best.getScenario().getParameters() : first.getScenario().getParameters();
+	}
+
+	/**
+	 * 
+	 * @param r
+	 * @param p
+	 * @param k
+	 * @return Expected overhead plus the weighted XOR per frame
+	 */
+	public double cost(Result r, CodeParameters p, int k) {
+		double f = r.getFailureRate();
+		double overhead = f < 1 ? (1 - f) * r.getMeanOverhead() + f * maxOverhead : maxOverhead;
+		double solveXors = f < 1 ? r.getSolveXorsPerFrame() : 0;
+		return overhead + xorWeight * (p.meanDegree(k) + solveXors);
+	}
+
+	/**
+	 * 
+	 * @param r
+	 * @return Standard error of {@link #cost(Result, CodeParameters, int)}, 
+	 * 0 if unknown
+	 */
+	public double costStdError(Result r) {
+		double error = Math.hypot(r.getOverheadStdError(), xorWeight * r.getSolveXorsStdError());
+		return Double.isNaN(error) ? 0 : error;
+	}
+
+	/**
+	 * 
+	 * @return Results of every candidate simulated so far
+	 */
+	public List<Result> getResults() {
+		return results;
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.wefeel.LT.Simulation;
+
+import com.wefeel.LT.Random.SplitMix64;
+
+/**
+ * Frames surviving another loss model arrive out of order: each one takes 
+ * a random seat in a window, and the frame that was in the seat arrives. 
+ * A frame is delayed by the window size on average, and the frames left in 
+ * the window at the end of a trial never arrive.
+ * @author R Wang
+ *
+ */
+public class ReorderingLoss implements LossModel {
+
+	private final LossModel loss;
+	private final int window;
+
+	/**
+	 * 
+	 * @param loss Loss before the reordering
+	 * @param window Number of frames in flight, at least 1
+	 */
+	public ReorderingLoss(LossModel loss, int window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("Invalid window " + window);
+		}
+		this.loss = loss;
+		this.window = window;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> Channel<T> newChannel(long seed) {
+		SplitMix64 random = new SplitMix64(~seed);
+		Channel<T> inner = loss.newChannel(seed);
+		Object[] seats = new Object[window];
+		return (frame, deliver) -> inner.send(frame, f -> {
+			int i = random.nextInt(window);
+			T previous = (T) seats[i];
+			seats[i] = f;
+			if (previous != null) {
+				deliver.accept(previous);
+			}
+		});
+	}
+
+	@Override
+	public String toString() {
+		return "reorder(" + window + " " + loss + ")";
+	}
+
+}
@@ -0,0 +1,218 @@
+package com.wefeel.LT.Simulation;
+
+import com.wefeel.LT.EncodedFrame;
+import java.util.Arrays;
+
+/**
+ * Distribution of the frames needed over the trials of a {@code Scenario}. 
+ * <br>
+ * <br>
+ * Frames received count the frames given to the decoder until it's done, 
+ * frames sent count the lost ones too. Statistics of frames are over the 
+ * trials that decoded; a trial fails if it didn't decode within the limit 
+ * of the simulator. The bandwidth overhead is what was sent, headers 
+ * included, over the size of the object, minus 1. The XOR of inactivation 
+ * decoding are on top of the ones of peeling, about the mean degree per 
+ * frame.
+ * @author R Wang
+ *
+ */
+public class Result {
+
+	public static final String CSV_HEADER = "k,frameSize,flags,c,spike,delta,loss,trials,failureRate,"
+			+ "meanReceived,p50Received,p99Received,maxReceived,meanOverhead,p99Overhead,meanSent,bandwidthOverhead,solveXorsPerFrame";
+
+	private final Scenario scenario;
+	private final int trials;
+	private final int failures;
+	/** Of the trials that decoded, sorted */
+	private final int[] received;
+	private final double meanSent;
+	/** Of the trials that decoded */
+	private final long[] solveXors;
+
+	/**
+	 * 
+	 * @param scenario
+	 * @param received Frames received by each trial, -1 if it failed
+	 * @param sent Frames sent by each trial
+	 * @param solveXors XOR of payloads done by inactivation decoding in each trial
+	 */
+	Result(Scenario scenario, int[] received, long[] sent, long[] solveXors) {
+		this.scenario = scenario;
+		this.trials = received.length;
+		this.received = Arrays.stream(received).filter(n -> n >= 0).sorted().toArray();
+		this.failures = trials - this.received.length;
+		this.solveXors = new long[this.received.length];
+		double s = 0;
+		int n = 0;
+		for (int i = 0; i < trials; i++) {
+			if (received[i] >= 0) {
+				s += sent[i];
+				this.solveXors[n++] = solveXors[i];
+			}
+		}
+		this.meanSent = this.received.length > 0 ? s / this.received.length : Double.NaN;
+	}
+
+	public Scenario getScenario() {
+		return scenario;
+	}
+
+	public int getTrials() {
+		return trials;
+	}
+
+	public double getFailureRate() {
+		return failures / (double) trials;
+	}
+
+	public double getMeanReceived() {
+		return received.length > 0 ? Arrays.stream(received).average().getAsDouble() : Double.NaN;
+	}
+
+	/**
+	 * 
+	 * @param p In (0, 1]
+	 * @return Frames received by the trial at this rank (nearest rank)
+	 */
+	public int getPercentileReceived(double p) {
+		if (received.length == 0) {
+			return -1;
+		}
+		return received[Math.max(0, (int) Math.ceil(p * received.length) - 1)];
+	}
+
+	public double getMeanSent() {
+		return meanSent;
+	}
+
+	/**
+	 * 
+	 * @return Mean of the frames received over k, minus 1
+	 */
+	public double getMeanOverhead() {
+		return getMeanReceived() / scenario.getK() - 1;
+	}
+
+	/**
+	 * 
+	 * @return Standard error of {@link #getMeanOverhead()}
+	 */
+	public double getOverheadStdError() {
+		return stdError(Arrays.stream(received).asDoubleStream().toArray()) / scenario.getK();
+	}
+
+	/**
+	 * 
+	 * @return 99th percentile of the frames received over k, minus 1
+	 */
+	public double getP99Overhead() {
+		return received.length > 0 ? getPercentileReceived(0.99) / (double) scenario.getK() - 1 : Double.NaN;
+	}
+
+	/**
+	 * 
+	 * @return Bytes sent, headers included, over the object size, minus 1
+	 */
+	public double getBandwidthOverhead() {
+		int frameSize = scenario.getFrameSize();
+		return meanSent * (EncodedFrame.headerSize(scenario.getFlags()) + frameSize) / ((double) scenario.getK() * frameSize) - 1;
+	}
+
+	/**
+	 * 
+	 * @return Mean XOR of payloads done by inactivation decoding, over k
+	 */
+	public double getSolveXorsPerFrame() {
+		return solveXors.length > 0 ? Arrays.stream(solveXors).average().getAsDouble() / scenario.getK() : Double.NaN;
+	}
+
+	/**
+	 * 
+	 * @return Standard error of {@link #getSolveXorsPerFrame()}
+	 */
+	public double getSolveXorsStdError() {
+		return stdError(Arrays.stream(solveXors).asDoubleStream().toArray()) / scenario.getK();
+	}
+
+	/**
+	 * 
+	 * @param values
+	 * @return Standard error of the mean of values, NaN if there are less than 2
+	 */
+	private static double stdError(double[] values) {
+		int n = values.length;
+		if (n < 2) {
+			return Double.NaN;
+		}
+		double mean = Arrays.stream(values).average().getAsDouble();
+		double s = 0;
+		for (double v : values) {
+			s += (v - mean) * (v - mean);
+		}
+		return Math.sqrt(s / (n - 1) / n);
+	}
+
+	public String toCsv() {
+		return String.join(",", 
+				String.valueOf(scenario.getK()), 
+				String.valueOf(scenario.getFrameSize()), 
+				String.valueOf(scenario.getFlags()), 
+				String.valueOf(scenario.getParameters().getC()), 
+				String.valueOf(scenario.getParameters().getSpike()), 
+				String.valueOf(scenario.getParameters().getDelta()), 
+				'"' + scenario.getLoss().toString().replace("\"", "\"\"") + '"', 
+				String.valueOf(trials), 
+				String.valueOf(getFailureRate()), 
+				String.valueOf(getMeanReceived()), 
+				String.valueOf(getPercentileReceived(0.5)), 
+				String.valueOf(getPercentileReceived(0.99)), 
+				String.valueOf(getPercentileReceived(1)), 
+				String.valueOf(getMeanOverhead()), 
+				String.valueOf(getP99Overhead()), 
+				String.valueOf(meanSent), 
+				String.valueOf(getBandwidthOverhead()), 
+				String.valueOf(getSolveXorsPerFrame()));
+	}
+
+	public String toJson() {
+		return "{\"k\":" + scenario.getK() 
+				+ ",\"frameSize\":" + scenario.getFrameSize() 
+				+ ",\"flags\":" + scenario.getFlags() 
+				+ ",\"c\":" + scenario.getParameters().getC() 
+				+ ",\"spike\":" + scenario.getParameters().getSpike() 
+				+ ",\"delta\":" + scenario.getParameters().getDelta() 
+				+ ",\"loss\":\"" + scenario.getLoss().toString().replace("\\", "\\\\").replace("\"", "\\\"") + '"' 
+				+ ",\"trials\":" + trials 
+				+ ",\"failureRate\":" + getFailureRate() 
+				+ ",\"meanReceived\":" + json(getMeanReceived()) 
+				+ ",\"p50Received\":" + getPercentileReceived(0.5) 
+				+ ",\"p99Received\":" + getPercentileReceived(0.99) 
+				+ ",\"maxReceived\":" + getPercentileReceived(1) 
+				+ ",\"meanOverhead\":" + json(getMeanOverhead()) 
+				+ ",\"p99Overhead\":" + json(getP99Overhead()) 
+				+ ",\"meanSent\":" + json(meanSent) 
+				+ ",\"bandwidthOverhead\":" + json(getBandwidthOverhead()) 
+				+ ",\"solveXorsPerFrame\":" + json(getSolveXorsPerFrame()) 
+				+ "}";
+	}
+
+	/**
+	 * 
+	 * @param v
+	 * @return null for NaN, which JSON doesn't have
+	 */
+	private static String json(double v) {
+		return Double.isFinite(v) ? String.valueOf(v) : "null";
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: failures %.2f%%, received mean %.1f (+%.1f%%) p99 %d max %d, bandwidth +%.1f%%, solve %.1f XOR per frame", 
+				scenario, getFailureRate() * 100, getMeanReceived(), getMeanOverhead() * 100, 
+				getPercentileReceived(0.99), getPercentileReceived(1), getBandwidthOverhead() * 100, 
+				getSolveXorsPerFrame());
+	}
+
+}
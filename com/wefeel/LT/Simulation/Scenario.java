@@ -0,0 +1,67 @@
+package com.wefeel.LT.Simulation;
+
+import com.wefeel.LT.CodeParameters;
+import com.wefeel.LT.EncodedFrame;
+import com.wefeel.LT.ParameterTable;
+
+/**
+ * One point of a simulation: how the object is coded, and how the link 
+ * loses frames.
+ * @author R Wang
+ *
+ */
+public class Scenario {
+
+	private final int k;
+	private final int frameSize;
+	private final int flags;
+	private final CodeParameters parameters;
+	private final LossModel loss;
+
+	/**
+	 * 
+	 * @param k Number of source frames
+	 * @param frameSize Bytes of payload of a frame
+	 * @param flags Combination of {@code EncodedFrame.FLAG_*}, without 
+	 * {@code FLAG_BLOCK}
+	 * @param parameters Degree distribution, replaced by the row of 
+	 * {@code ParameterTable} with {@code FLAG_TUNED}
+	 * @param loss
+	 */
+	public Scenario(int k, int frameSize, int flags, CodeParameters parameters, LossModel loss) {
+		if (k < 1 || frameSize < 1) {
+			throw new IllegalArgumentException("Invalid k " + k + " or frame size " + frameSize);
+		}
+		this.k = k;
+		this.frameSize = frameSize;
+		this.flags = flags;
+		this.parameters = (flags & EncodedFrame.FLAG_TUNED) != 0 ? ParameterTable.get(ParameterTable.idFor(k)) : parameters;
+		this.loss = loss;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	public int getFlags() {
+		return flags;
+	}
+
+	public CodeParameters getParameters() {
+		return parameters;
+	}
+
+	public LossModel getLoss() {
+		return loss;
+	}
+
+	@Override
+	public String toString() {
+		return "k=" + k + " frameSize=" + frameSize + " flags=" + flags + " " + parameters + " " + loss;
+	}
+
+}
@@ -0,0 +1,209 @@
+package com.wefeel.LT.Simulation;
+
+import com.wefeel.LT.Decoder;
+import com.wefeel.LT.EncodedFrame;
+import com.wefeel.LT.Encoder;
+import com.wefeel.LT.Random.SplitMix64;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Monte-Carlo estimate of the frames a decoder needs. <br>
+ * <br>
+ * Each trial encodes an object with its own nonce, sends the frames 
+ * through a channel of the loss model and decodes them, until decoded or 
+ * until the decoder received {@code k * (1 + maxOverhead)} frames. The 
+ * trials of a scenario run in parallel on a {@code ForkJoinPool}, and each 
+ * trial's nonce and channel seed only depend on the seed of the simulator 
+ * and the number of the trial, so results are the same whatever the 
+ * number of threads. <br>
+ * <br>
+ * The number of frames needed doesn't depend on the payload, only on the 
+ * neighbors of the frames, so trials code {@value #PAYLOAD_SIZE} byte 
+ * frames and the frame size of a scenario only counts in the bandwidth.
+ * @author R Wang
+ *
+ */
+public class Simulator {
+
+	/** Bytes of payload actually coded by a trial */
+	public static final int PAYLOAD_SIZE = 8;
+	public static final double DEFAULT_MAX_OVERHEAD = 1;
+
+	private final int trials;
+	private final long seed;
+	private double maxOverhead = DEFAULT_MAX_OVERHEAD;
+	private boolean inactivation = true;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * 
+	 * @param trials Number of trials of each scenario
+	 * @param seed
+	 */
+	public Simulator(int trials, long seed) {
+		if (trials < 1) {
+			throw new IllegalArgumentException("Invalid number of trials " + trials);
+		}
+		this.trials = trials;
+		this.seed = seed;
+	}
+
+	/**
+	 * 
+	 * @param maxOverhead A trial fails if it's not decoded after receiving 
+	 * {@code k * (1 + maxOverhead)} frames
+	 */
+	public void setMaxOverhead(double maxOverhead) {
+		this.maxOverhead = maxOverhead;
+	}
+
+	/**
+	 * 
+	 * @param enabled See {@link Decoder#setInactivationDecoding(boolean)}, 
+	 * peeling alone shows the degree distribution much more
+	 */
+	public void setInactivationDecoding(boolean enabled) {
+		this.inactivation = enabled;
+	}
+
+	/**
+	 * Set the pool trials run on, the common pool is used by default
+	 * @param pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Run the trials of each scenario, one scenario after another
+	 * @param scenarios
+	 * @return A result per scenario, in the same order
+	 */
+	public List<Result> run(List<Scenario> scenarios) {
+		List<Result> results = new ArrayList<>();
+		for (Scenario s : scenarios) {
+			results.add(run(s));
+		}
+		return results;
+	}
+
+	public Result run(Scenario scenario) {
+		int[] received = new int[trials];
+		long[] sent = new long[trials];
+		long[] xors = new long[trials];
+		pool.invoke(new TrialTask(scenario, received, sent, xors, 0, trials));
+		return new Result(scenario, received, sent, xors);
+	}
+
+	/**
+	 * Run a single trial
+	 * @param scenario
+	 * @param trial
+	 * @param sent Set to the number of frames sent
+	 * @param xors Set to the XOR of payloads done by inactivation decoding
+	 * @return Number of frames received until decoded, -1 if not decoded
+	 */
+	private int trial(Scenario scenario, int trial, long[] sent, long[] xors) {
+		int k = scenario.getK();
+		long nonce = SplitMix64.mix64(seed + trial);
+		byte[] data = new byte[k * PAYLOAD_SIZE]; // Content doesn't matter either
+		int limit = (int) Math.min(Integer.MAX_VALUE, (long) Math.ceil(k * (1 + maxOverhead)));
+		int[] received = {0};
+		try (Encoder e = new Encoder(data, PAYLOAD_SIZE, nonce, scenario.getFlags()); 
+				Decoder d = new Decoder()) {
+			if ((scenario.getFlags() & EncodedFrame.FLAG_TUNED) == 0) {
+				e.setParameters(scenario.getParameters());
+				d.setParameters(scenario.getParameters());
+			}
+			d.setInactivationDecoding(inactivation);
+			LossModel.Channel<EncodedFrame> channel = scenario.getLoss().newChannel(~nonce);
+			long n = 0;
+			// Stop too if the channel delivers nothing for long, e.g. it's stuck in a bad state
+			long maxSent = 64l * limit;
+			while (!d.finished() && received[0] < limit && n < maxSent) {
+				channel.send(e.next(), f -> {
+					if (received[0] < limit) {
+						received[0]++;
+						d.frameReceived(f);
+					}
+				});
+				n++;
+			}
+			sent[trial] = n;
+			xors[trial] = d.getSolveXorCount();
+			return d.finished() ? received[0] : -1;
+		}
+	}
+
+	/**
+	 * Write results as CSV, a header line then a line per result
+	 * @param results
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void writeCsv(List<Result> results, Writer out) throws IOException {
+		out.write(Result.CSV_HEADER);
+		out.write('\n');
+		for (Result r : results) {
+			out.write(r.toCsv());
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	/**
+	 * Write results as a JSON array
+	 * @param results
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void writeJson(List<Result> results, Writer out) throws IOException {
+		out.write("[\n");
+		for (int i = 0; i < results.size(); i++) {
+			out.write("  ");
+			out.write(results.get(i).toJson());
+			out.write(i < results.size() - 1 ? ",\n" : "\n");
+		}
+		out.write("]\n");
+		out.flush();
+	}
+
+	/**
+	 * Trials {@code [from, to)}, split in halves down to single trials
+	 */
+	private class TrialTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Scenario scenario;
+		private final int[] received;
+		private final long[] sent;
+		private final long[] xors;
+		private final int from, to;
+
+		TrialTask(Scenario scenario, int[] received, long[] sent, long[] xors, int from, int to) {
+			this.scenario = scenario;
+			this.received = received;
+			this.sent = sent;
+			this.xors = xors;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				received[from] = trial(scenario, from, sent, xors);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new TrialTask(scenario, received, sent, xors, from, mid), 
+					new TrialTask(scenario, received, sent, xors, mid, to));
+		}
+	}
+
+}
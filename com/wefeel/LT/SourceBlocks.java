@@ -0,0 +1,121 @@
+package com.wefeel.LT;
+
+/**
+ * Partition of an object into source blocks. <br>
+ * <br>
+ * Each block is coded on its own with its own {@code Encoder} /
+ * {@code Decoder} pair, which bounds the size of the degree distribution,
+ * the neighbor indexes and the peeling state to a single block. Like
+ * RaptorQ the frames are spread as evenly as possible: the first
+ * {@code nPackets % blockCount} blocks get one more frame than the others.
+ * The partition only depends on filesize, frameSize and blockCount, so
+ * both ends agree on it with just the block count sent in the header.
+ * @author R Wang
+ *
+ */
+public class SourceBlocks {
+
+	/** The block count is sent as 16 bits */
+	public static final int MAX_BLOCKS = 0xFFFF;
+	/** Number of frames per block when nothing else is specified */
+	public static final int DEFAULT_BLOCK_PACKETS = 1 << 16;
+	/** Multiplied by the block number to derive the seed of each block */
+	private static final long BLOCK_SEED = 0x9E3779B97F4A7C15l;
+
+	private final long filesize;
+	private final int frameSize;
+	private final int nPackets;
+	private final int blockCount;
+
+	/**
+	 *
+	 * @param filesize Size of the whole object
+	 * @param frameSize
+	 * @param blockCount Between 1 and {@link #MAX_BLOCKS}
+	 */
+	public SourceBlocks(long filesize, int frameSize, int blockCount) {
+		this.filesize = filesize;
+		this.frameSize = frameSize;
+		this.nPackets = (int) Math.ceil(filesize / (double) frameSize);
+		if (blockCount < 1 || blockCount > MAX_BLOCKS || blockCount > Math.max(1, nPackets)) {
+			throw new IllegalArgumentException("Invalid number of blocks " + blockCount);
+		}
+		this.blockCount = blockCount;
+	}
+
+	/**
+	 * Split the object into as few blocks as possible, with at most
+	 * {@code maxBlockPackets} frames in each
+	 * @param filesize
+	 * @param frameSize
+	 * @param maxBlockPackets
+	 * @return
+	 */
+	public static SourceBlocks withMaxBlockPackets(long filesize, int frameSize, int maxBlockPackets) {
+		long nPackets = (long) Math.ceil(filesize / (double) frameSize);
+		long blockCount = Math.max(1, (nPackets + maxBlockPackets - 1) / maxBlockPackets);
+		if (blockCount > MAX_BLOCKS) {
+			throw new IllegalArgumentException("Object too large for blocks of " + maxBlockPackets + " frames");
+		}
+		return new SourceBlocks(filesize, frameSize, (int) blockCount);
+	}
+
+	/**
+	 * Seed of the neighbor generator of a block, so that blocks don't all
+	 * use the same random stream
+	 * @param nonce
+	 * @param block
+	 * @return
+	 */
+	public static long blockSeed(long nonce, int block) {
+		return nonce ^ (BLOCK_SEED * (block + 1));
+	}
+
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	public int getNPackets() {
+		return nPackets;
+	}
+
+	/**
+	 *
+	 * @param block
+	 * @return Index of the first frame of the block in the whole object
+	 */
+	public int getFirstPacket(int block) {
+		int small = nPackets / blockCount;
+		int nLarge = nPackets % blockCount;
+		return block * small + Math.min(block, nLarge);
+	}
+
+	/**
+	 *
+	 * @param block
+	 * @return Number of frames in the block
+	 */
+	public int getNPackets(int block) {
+		return nPackets / blockCount + (block < nPackets % blockCount ? 1 : 0);
+	}
+
+	/**
+	 *
+	 * @param block
+	 * @return Position of the first byte of the block in the whole object
+	 */
+	public long getOffset(int block) {
+		return (long) getFirstPacket(block) * frameSize;
+	}
+
+	/**
+	 *
+	 * @param block
+	 * @return Number of bytes in the block, only the last one can be shorter
+	 * than a whole number of frames
+	 */
+	public long getBlockSize(int block) {
+		return Math.min((long) getNPackets(block) * frameSize, filesize - getOffset(block));
+	}
+
+}
@@ -0,0 +1,413 @@
+package com.wefeel.LT;
+
+import java.util.Arrays;
+
+/**
+ * Peeling decoder state, kept in primitive arrays. <br>
+ * <br>
+ * Symbols are the source frames (and parity symbols of a precode), frames 
+ * the encoded frames still waiting for more than one symbol. Each frame 
+ * keeps its number of unknown neighbors and the XOR of their indexes, so 
+ * when only one is left it's the index itself and nothing has to be 
+ * searched. Edges from a symbol to the frames waiting for it are singly 
+ * linked lists in int arrays, and decoded frames go through an int ripple 
+ * queue, so decoding is iterative whatever the depth of the chain. <br>
+ * <br>
+ * Frame slots and edges are recycled through free lists, so once the 
+ * arrays have grown to the working set nothing is allocated. A slot is 
+ * stamped with a generation that edges copy, so that stale edges of a 
+ * recycled slot are skipped instead of searched and removed. <br>
+ * <br>
+ * With a {@code MappedFrameSink} the required symbols are written into it 
+ * as soon as they are decoded, and are read back from it when needed, 
+ * their entry in {@link #getSymbols()} being just {@link #STORED}. <br>
+ * <br>
+ * With a {@code BufferPool}, payloads the graph is done with go back to 
+ * it: frames with nothing new, frames made redundant, frames cleared, and 
+ * symbols once written to the sink. <br>
+ * <br>
+ * Not thread safe.
+ * @author R Wang
+ *
+ */
+class TannerGraph {
+
+	private static final int INITIAL_CAPACITY = 64;
+	/** Content of the symbols decoded into the sink, only marks them as known */
+	static final byte[] STORED = new byte[0];
+
+	/** Content of each symbol, null until decoded */
+	private byte[][] symbols;
+	/** Symbols [0, required) are the ones that count */
+	private final int required;
+	private int decodedRequired;
+	/** Where the required symbols are written, null to keep them in {@link #symbols} */
+	private final MappedFrameSink sink;
+	/** Where unused payloads go, or null */
+	private BufferPool pool;
+
+	// Frames, indexed by slot
+	private int[][] neighbors;
+	private byte[][] payloads;
+	/** Number of unknown neighbors, 0 for a free slot */
+	private int[] remaining;
+	/** XOR of the indexes of the unknown neighbors */
+	private int[] unknownXor;
+	private int[] generation;
+	private int slots;
+	private int[] freeSlots;
+	private int nFree;
+	/** Number of slots in use */
+	private int pending;
+
+	// Edges, from a symbol to a frame waiting for it
+	private int[] head;
+	private int[] edgeFrame;
+	private int[] edgeGeneration;
+	private int[] edgeNext;
+	private int edges;
+	private int freeEdge = -1;
+
+	/** Required symbols decoded since the log was last cleared */
+	private int[] decodedLog;
+	private int decodedLogSize;
+
+	// Ripple, frames with a single unknown neighbor
+	private int[] ripple;
+	private int rippleHead, rippleTail;
+
+	/**
+	 * 
+	 * @param symbols Number of symbols
+	 * @param required Symbols {@code [0, required)} are the ones counted by 
+	 * {@link #getDecodedRequired()}
+	 */
+	TannerGraph(int symbols, int required) {
+		this(symbols, required, null);
+	}
+
+	/**
+	 * 
+	 * @param symbols Number of symbols
+	 * @param required Symbols {@code [0, required)} are the ones counted by 
+	 * {@link #getDecodedRequired()}
+	 * @param sink Where the required symbols are written, or null
+	 */
+	TannerGraph(int symbols, int required, MappedFrameSink sink) {
+		this.symbols = new byte[symbols][];
+		this.required = required;
+		this.sink = sink;
+		head = new int[symbols];
+		Arrays.fill(head, -1);
+		neighbors = new int[INITIAL_CAPACITY][];
+		payloads = new byte[INITIAL_CAPACITY][];
+		remaining = new int[INITIAL_CAPACITY];
+		unknownXor = new int[INITIAL_CAPACITY];
+		generation = new int[INITIAL_CAPACITY];
+		freeSlots = new int[INITIAL_CAPACITY];
+		edgeFrame = new int[INITIAL_CAPACITY];
+		edgeGeneration = new int[INITIAL_CAPACITY];
+		edgeNext = new int[INITIAL_CAPACITY];
+		ripple = new int[INITIAL_CAPACITY];
+		decodedLog = new int[INITIAL_CAPACITY];
+	}
+
+	void setPool(BufferPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Give a payload nobody uses any more back to the pool
+	 * @param payload
+	 */
+	void recycle(byte[] payload) {
+		if (pool != null) {
+			pool.release(payload);
+		}
+	}
+
+	byte[][] getSymbols() {
+		return symbols;
+	}
+
+	int getDecodedRequired() {
+		return decodedRequired;
+	}
+
+	/**
+	 * 
+	 * @return Required symbols decoded since {@link #clearDecodedLog()}, in 
+	 * {@code [0, getDecodedLogSize())}
+	 */
+	int[] getDecodedLog() {
+		return decodedLog;
+	}
+
+	int getDecodedLogSize() {
+		return decodedLogSize;
+	}
+
+	void clearDecodedLog() {
+		decodedLogSize = 0;
+	}
+
+	/**
+	 * 
+	 * @return Number of frames waiting for two or more symbols
+	 */
+	int getPendingCount() {
+		return pending;
+	}
+
+	/**
+	 * 
+	 * @return Frames are in slots {@code [0, getSlotCount())}, see 
+	 * {@link #isPending(int)}
+	 */
+	int getSlotCount() {
+		return slots;
+	}
+
+	boolean isPending(int slot) {
+		return remaining[slot] > 0;
+	}
+
+	int[] getNeighbors(int slot) {
+		return neighbors[slot];
+	}
+
+	byte[] getPayload(int slot) {
+		return payloads[slot];
+	}
+
+	/**
+	 * Add a frame, and decode everything it makes possible
+	 * @param frameNeighbors Index of the symbols XOR'ed into the payload
+	 * @param payload Taken over, it becomes the content of a symbol if decoded
+	 */
+	void add(int[] frameNeighbors, byte[] payload) {
+		int count = 0, xor = 0;
+		for (int s : frameNeighbors) {
+			if (symbols[s] == null) {
+				count++;
+				xor ^= s;
+			}
+		}
+		if (count == 0) {
+			recycle(payload);
+			return; // Nothing new in it
+		}
+		int slot = allocate(frameNeighbors, payload, count, xor);
+		if (count == 1) {
+			push(slot);
+		} else {
+			for (int s : frameNeighbors) {
+				if (symbols[s] == null) link(s, slot);
+			}
+		}
+		peel();
+	}
+
+	/**
+	 * Decode the ripple until it's empty
+	 */
+	private void peel() {
+		while (rippleHead < rippleTail) {
+			int slot = ripple[rippleHead++];
+			if (remaining[slot] == 1) {
+				decode(slot);
+			} else { // Its last symbol was decoded by another frame
+				recycle(payloads[slot]);
+				release(slot);
+			}
+		}
+		rippleHead = rippleTail = 0;
+	}
+
+	private void decode(int slot) {
+		int missing = unknownXor[slot];
+		int[] nb = neighbors[slot];
+		byte[] data = payloads[slot];
+		int at = 0;
+		while (nb[at] != missing) at++;
+		// Every other neighbor is known, XOR them out
+		xorKnown(data, nb, 0, at);
+		xorKnown(data, nb, at + 1, nb.length);
+		release(slot);
+		symbolDecoded(missing, data);
+	}
+
+	/**
+	 * XOR the content of decoded symbols into target
+	 * @param target
+	 * @param indexes Of symbols already decoded
+	 * @param from inclusive
+	 * @param to exclusive
+	 */
+	void xorKnown(byte[] target, int[] indexes, int from, int to) {
+		if (sink == null) {
+			XorEngine.get().xor(target, symbols, indexes, from, to);
+			return;
+		}
+		for (int i = from; i < to; i++) {
+			int s = indexes[i];
+			if (symbols[s] == STORED) {
+				sink.xor(target, s);
+			} else {
+				XorEngine.get().xor(target, symbols[s]);
+			}
+		}
+	}
+
+	/**
+	 * Set the content of a symbol and update the frames waiting for it
+	 * @param s
+	 * @param data
+	 */
+	private void symbolDecoded(int s, byte[] data) {
+		if (sink != null && s < required) {
+			sink.write(s, data);
+			recycle(data);
+			data = STORED;
+		}
+		symbols[s] = data;
+		if (s < required) {
+			decodedRequired++;
+			if (decodedLogSize == decodedLog.length) {
+				decodedLog = Arrays.copyOf(decodedLog, decodedLogSize * 2);
+			}
+			decodedLog[decodedLogSize++] = s;
+		}
+		int e = head[s];
+		head[s] = -1;
+		while (e != -1) {
+			int next = edgeNext[e];
+			int f = edgeFrame[e];
+			if (generation[f] == edgeGeneration[e] && remaining[f] > 0) {
+				unknownXor[f] ^= s;
+				if (--remaining[f] == 1) {
+					push(f);
+				}
+			}
+			edgeNext[e] = freeEdge;
+			freeEdge = e;
+			e = next;
+		}
+	}
+
+	/**
+	 * Set symbols solved by other means, e.g. by {@code InactivationSolver}, 
+	 * and decode everything they make possible
+	 * @param solved Content of the solved symbols, null for the others
+	 */
+	void solved(byte[][] solved) {
+		for (int s = 0; s < solved.length; s++) {
+			if (solved[s] != null && symbols[s] == null) {
+				symbolDecoded(s, solved[s]);
+			}
+		}
+		if (decodedRequired == required) {
+			clearFrames(); // Whatever is still waiting isn't needed
+		} else {
+			peel();
+		}
+	}
+
+	private int allocate(int[] frameNeighbors, byte[] payload, int count, int xor) {
+		int slot;
+		if (nFree > 0) {
+			slot = freeSlots[--nFree];
+		} else {
+			if (slots == remaining.length) {
+				grow(slots * 2);
+			}
+			slot = slots++;
+		}
+		neighbors[slot] = frameNeighbors;
+		payloads[slot] = payload;
+		remaining[slot] = count;
+		unknownXor[slot] = xor;
+		pending++;
+		return slot;
+	}
+
+	private void release(int slot) {
+		neighbors[slot] = null;
+		payloads[slot] = null;
+		remaining[slot] = 0;
+		generation[slot]++; // Invalidate its edges
+		if (nFree == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, nFree * 2);
+		}
+		freeSlots[nFree++] = slot;
+		pending--;
+	}
+
+	private void grow(int capacity) {
+		neighbors = Arrays.copyOf(neighbors, capacity);
+		payloads = Arrays.copyOf(payloads, capacity);
+		remaining = Arrays.copyOf(remaining, capacity);
+		unknownXor = Arrays.copyOf(unknownXor, capacity);
+		generation = Arrays.copyOf(generation, capacity);
+	}
+
+	private void link(int s, int slot) {
+		int e;
+		if (freeEdge != -1) {
+			e = freeEdge;
+			freeEdge = edgeNext[e];
+		} else {
+			if (edges == edgeFrame.length) {
+				int capacity = edges * 2;
+				edgeFrame = Arrays.copyOf(edgeFrame, capacity);
+				edgeGeneration = Arrays.copyOf(edgeGeneration, capacity);
+				edgeNext = Arrays.copyOf(edgeNext, capacity);
+			}
+			e = edges++;
+		}
+		edgeFrame[e] = slot;
+		edgeGeneration[e] = generation[slot];
+		edgeNext[e] = head[s];
+		head[s] = e;
+	}
+
+	private void push(int slot) {
+		if (rippleTail == ripple.length) {
+			ripple = Arrays.copyOf(ripple, rippleTail * 2);
+		}
+		ripple[rippleTail++] = slot;
+	}
+
+	/**
+	 * Drop all frames, decoded symbols are kept
+	 */
+	void clearFrames() {
+		for (int slot = 0; slot < slots; slot++) {
+			if (payloads[slot] != null) { // Not a free slot
+				recycle(payloads[slot]);
+			}
+			neighbors[slot] = null;
+			payloads[slot] = null;
+			remaining[slot] = 0;
+		}
+		slots = nFree = pending = edges = 0;
+		freeEdge = -1;
+		rippleHead = rippleTail = 0;
+		Arrays.fill(head, -1);
+	}
+
+	/**
+	 * Drop all frames and decoded symbols, and release the arrays. The 
+	 * graph can't be used after
+	 */
+	void close() {
+		clearFrames();
+		symbols = null;
+		neighbors = null;
+		payloads = null;
+		remaining = unknownXor = generation = freeSlots = null;
+		head = edgeFrame = edgeGeneration = edgeNext = null;
+		decodedLog = ripple = null;
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.wefeel.LT.Transport;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Token bucket to pace a sender. <br>
+ * <br>
+ * Tokens are bytes, added at {@code rate} per second up to {@code burst}. 
+ * {@link #acquire(long)} takes them even when there aren't enough, and 
+ * waits for the debt to be paid back, so a batch larger than the burst 
+ * still goes through at the right average rate. It's thread safe, so 
+ * several senders can share one bucket to cap a link as a whole; the lock 
+ * is never held while waiting.
+ * @author R Wang
+ *
+ */
+public class TokenBucket {
+
+	private final long rate;
+	private final long burst;
+	/** Guarded by this, can be negative while paying back a debt */
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 *
+	 * @param rate Bytes per second
+	 * @param burst Bytes that can be sent at once after being idle
+	 */
+	public TokenBucket(long rate, long burst) {
+		if (rate <= 0 || burst <= 0) {
+			throw new IllegalArgumentException("Invalid rate " + rate + " or burst " + burst);
+		}
+		this.rate = rate;
+		this.burst = burst;
+		this.tokens = burst;
+		this.lastRefill = System.nanoTime();
+	}
+
+	public long getRate() {
+		return rate;
+	}
+
+	/**
+	 * Take tokens, waiting until they are paid for
+	 * @param n
+	 */
+	public void acquire(long n) {
+		long wait;
+		synchronized (this) {
+			refill();
+			tokens -= n;
+			wait = tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+		}
+		long deadline = System.nanoTime() + wait;
+		while (wait > 0) {
+			LockSupport.parkNanos(wait);
+			wait = deadline - System.nanoTime();
+		}
+	}
+
+	/**
+	 * Take tokens only if there are enough now
+	 * @param n
+	 * @return
+	 */
+	public synchronized boolean tryAcquire(long n) {
+		refill();
+		if (tokens < n) {
+			return false;
+		}
+		tokens -= n;
+		return true;
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		tokens = Math.min(burst, tokens + (now - lastRefill) * 1e-9 * rate);
+		lastRefill = now;
+	}
+
+}
@@ -0,0 +1,295 @@
+package com.wefeel.LT.Transport;
+
+import com.wefeel.LT.BlockDecoder;
+import com.wefeel.LT.Decoder;
+import com.wefeel.LT.Random.SplitMix64;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Receive packets from a UDP channel into a {@code Decoder} or 
+ * {@code BlockDecoder}, in either wire format. <br>
+ * <br>
+ * The channel is made non blocking and waited on with a {@code Selector}. 
+ * Once readable, it's drained a batch at a time: up to {@code batchSize} 
+ * datagrams are received into direct buffers allocated once and reused, 
+ * then all of them are handed to the decoder, which reads them in place 
+ * (see {@link Decoder#frameReceived(ByteBuffer)}). The channel can be 
+ * bound to a unicast port or join a multicast group, see 
+ * {@link #openMulticast(InetAddress, int, NetworkInterface)}. <br>
+ * <br>
+ * A receiver isn't thread safe, it's run by a single thread with 
+ * {@link #receive(long, TimeUnit)} or {@link #run()}, and stopped from any 
+ * thread. Several receivers on several channels can feed the same decoder.
+ * @author R Wang
+ *
+ */
+public class UdpReceiver implements Runnable, AutoCloseable {
+
+	public static final int DEFAULT_BATCH_SIZE = 32;
+	/** Largest UDP payload */
+	public static final int DEFAULT_MAX_PACKET_SIZE = 65507;
+	/** Socket buffer asked for by {@code open}, to ride out decoding stalls */
+	public static final int SOCKET_BUFFER_SIZE = 4 << 20;
+
+	/** One of them is set */
+	private final Decoder decoder;
+	private final BlockDecoder blockDecoder;
+	private final DatagramChannel channel;
+	private final Selector selector;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int maxPacketSize = DEFAULT_MAX_PACKET_SIZE;
+	private double loss;
+	private SplitMix64 lossRandom;
+	/** Datagrams of a batch, allocated on the first receive */
+	private ByteBuffer[] buffers;
+	private volatile boolean stopped;
+
+	private final LongAdder packetsReceived = new LongAdder();
+	private final LongAdder bytesReceived = new LongAdder();
+	private final LongAdder packetsDropped = new LongAdder();
+	private volatile long startTime;
+
+	/**
+	 *
+	 * @param decoder
+	 * @param channel Bound, made non blocking
+	 * @throws UncheckedIOException
+	 */
+	public UdpReceiver(Decoder decoder, DatagramChannel channel) {
+		this(decoder, null, channel);
+	}
+
+	/**
+	 *
+	 * @param decoder
+	 * @param channel Bound, made non blocking
+	 * @throws UncheckedIOException
+	 */
+	public UdpReceiver(BlockDecoder decoder, DatagramChannel channel) {
+		this(null, decoder, channel);
+	}
+
+	private UdpReceiver(Decoder decoder, BlockDecoder blockDecoder, DatagramChannel channel) {
+		this.decoder = decoder;
+		this.blockDecoder = blockDecoder;
+		this.channel = channel;
+		try {
+			channel.configureBlocking(false);
+			selector = Selector.open();
+			channel.register(selector, SelectionKey.OP_READ);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 *
+	 * @param local Address to bind to, e.g. {@code new InetSocketAddress(port)}
+	 * @return A channel bound to it, with a large socket buffer
+	 * @throws IOException
+	 */
+	public static DatagramChannel open(SocketAddress local) throws IOException {
+		DatagramChannel ch = DatagramChannel.open();
+		ch.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER_SIZE);
+		return ch.bind(local);
+	}
+
+	/**
+	 *
+	 * @param group IPv4 multicast group
+	 * @param port
+	 * @param ni Interface to join the group on
+	 * @return A channel bound to the port and member of the group, several 
+	 * receivers on the same host can share the port
+	 * @throws IOException
+	 */
+	public static DatagramChannel openMulticast(InetAddress group, int port, NetworkInterface ni) throws IOException {
+		DatagramChannel ch = DatagramChannel.open(StandardProtocolFamily.INET);
+		ch.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		ch.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER_SIZE);
+		ch.bind(new InetSocketAddress(port));
+		ch.join(group, ni);
+		return ch;
+	}
+
+	/**
+	 *
+	 * @param batchSize Number of datagrams received before being decoded
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+		buffers = null;
+	}
+
+	/**
+	 *
+	 * @param maxPacketSize Larger datagrams are truncated, and then dropped 
+	 * by the decoder
+	 */
+	public void setMaxPacketSize(int maxPacketSize) {
+		this.maxPacketSize = maxPacketSize;
+		buffers = null;
+	}
+
+	/**
+	 * Drop packets on purpose instead of decoding them, to test a lossy link
+	 * @param loss Probability of dropping a packet
+	 * @param seed
+	 */
+	public void setLoss(double loss, long seed) {
+		this.loss = loss;
+		this.lossRandom = new SplitMix64(seed);
+	}
+
+	/**
+	 * Receive until the object is decoded
+	 * @param timeout
+	 * @param unit
+	 * @return Whether the object is decoded, false on timeout or if stopped
+	 * @throws UncheckedIOException
+	 */
+	public boolean receive(long timeout, TimeUnit unit) {
+		if (buffers == null) {
+			buffers = new ByteBuffer[batchSize];
+			for (int i = 0; i < batchSize; i++) {
+				buffers[i] = ByteBuffer.allocateDirect(maxPacketSize);
+			}
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		try {
+			while (!finished() && !stopped) {
+				long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (left <= 0) {
+					return false;
+				}
+				if (selector.select(left) == 0) {
+					continue;
+				}
+				selector.selectedKeys().clear();
+				int n;
+				do {
+					n = receiveBatch();
+				} while (n == batchSize && !finished());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return finished();
+	}
+
+	/**
+	 * Receive until the object is decoded or stopped
+	 */
+	@Override
+	public void run() {
+		while (!stopped && !receive(1, TimeUnit.SECONDS)) {
+		}
+	}
+
+	/**
+	 * Stop {@link #receive(long, TimeUnit)} or {@link #run()} within a 
+	 * batch, from any thread
+	 */
+	public void stop() {
+		stopped = true;
+		selector.wakeup();
+	}
+
+	/**
+	 * Receive the datagrams waiting, up to a batch, and decode them
+	 * @return Number of datagrams received
+	 * @throws IOException
+	 */
+	private int receiveBatch() throws IOException {
+		int n = 0;
+		while (n < batchSize) {
+			ByteBuffer buf = buffers[n];
+			buf.clear();
+			if (channel.receive(buf) == null) {
+				break;
+			}
+			buf.flip();
+			n++;
+		}
+		if (n > 0 && startTime == 0) {
+			startTime = System.nanoTime();
+		}
+		for (int i = 0; i < n; i++) {
+			ByteBuffer buf = buffers[i];
+			packetsReceived.increment();
+			bytesReceived.add(buf.remaining());
+			if (lossRandom != null && lossRandom.nextDouble() < loss) {
+				packetsDropped.increment();
+			} else if (decoder != null) {
+				decoder.frameReceived(buf);
+			} else {
+				blockDecoder.frameReceived(buf);
+			}
+		}
+		return n;
+	}
+
+	private boolean finished() {
+		return decoder != null ? decoder.finished() : blockDecoder.finished();
+	}
+
+	/**
+	 *
+	 * @return Number of datagrams received, dropped ones included
+	 */
+	public long getPacketsReceived() {
+		return packetsReceived.sum();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
+	/**
+	 *
+	 * @return Number of packets dropped on purpose, see {@link #setLoss(double, long)}
+	 */
+	public long getPacketsDropped() {
+		return packetsDropped.sum();
+	}
+
+	/**
+	 *
+	 * @return Bytes received per second since the first datagram
+	 */
+	public double getThroughput() {
+		long start = startTime;
+		return start == 0 ? 0 : getBytesReceived() * 1e9 / Math.max(1, System.nanoTime() - start);
+	}
+
+	/**
+	 * Close the selector, the channel is left open
+	 */
+	@Override
+	public void close() {
+		try {
+			selector.close();
+		} catch (IOException e) {} // Nothing we can do here
+	}
+
+	@Override
+	public String toString() {
+		return String.format("UdpReceiver[%d packets, %d bytes, %d dropped, %.1f MB/s]", 
+				getPacketsReceived(), getBytesReceived(), getPacketsDropped(), getThroughput() / 1e6);
+	}
+
+}
@@ -0,0 +1,314 @@
+package com.wefeel.LT.Transport;
+
+import com.wefeel.LT.BlockEncoder;
+import com.wefeel.LT.Encoder;
+import com.wefeel.LT.Random.SplitMix64;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Send an {@code Encoder} or {@code BlockEncoder} over UDP, in v2 packets 
+ * (see {@code WireFormat}). <br>
+ * <br>
+ * An announce packet goes first, then every {@code announceInterval} 
+ * packets for receivers joining late, and the other packets hold as many 
+ * frames as fit in {@code packetSize}. Packets are encoded a batch at a 
+ * time into direct buffers allocated once and reused, then paced by a 
+ * {@code TokenBucket} and sent. The target can be a unicast or a multicast 
+ * address, see {@link #openMulticast(NetworkInterface, int)}. <br>
+ * <br>
+ * A sender isn't thread safe, it's run by a single thread with 
+ * {@link #send(long)} or {@link #run()}, and stopped from any thread. 
+ * Counters can be read from any thread.
+ * @author R Wang
+ *
+ */
+public class UdpSender implements Runnable {
+
+	/** Largest UDP payload in an Ethernet frame over IPv4 */
+	public static final int DEFAULT_PACKET_SIZE = 1472;
+	public static final int DEFAULT_BATCH_SIZE = 16;
+	public static final int DEFAULT_ANNOUNCE_INTERVAL = 64;
+
+	/** One of them is set */
+	private final Encoder encoder;
+	private final BlockEncoder blockEncoder;
+	private final DatagramChannel channel;
+	private final SocketAddress target;
+
+	private int packetSize = DEFAULT_PACKET_SIZE;
+	private int framesPerPacket = Integer.MAX_VALUE;
+	private int announceInterval = DEFAULT_ANNOUNCE_INTERVAL;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private TokenBucket bucket;
+	private double loss;
+	private SplitMix64 lossRandom;
+	/** Packets encoded in a batch, allocated on the first send */
+	private ByteBuffer[] buffers;
+	private long packetCount;
+	private volatile boolean stopped;
+
+	private final LongAdder packetsSent = new LongAdder();
+	private final LongAdder bytesSent = new LongAdder();
+	private final LongAdder framesSent = new LongAdder();
+	private final LongAdder packetsDropped = new LongAdder();
+	private volatile long startTime;
+
+	/**
+	 *
+	 * @param encoder
+	 * @param channel Blocking, see {@link #open()}
+	 * @param target Unicast or multicast address
+	 */
+	public UdpSender(Encoder encoder, DatagramChannel channel, SocketAddress target) {
+		this(encoder, null, channel, target);
+	}
+
+	/**
+	 *
+	 * @param encoder
+	 * @param channel Blocking, see {@link #open()}
+	 * @param target Unicast or multicast address
+	 */
+	public UdpSender(BlockEncoder encoder, DatagramChannel channel, SocketAddress target) {
+		this(null, encoder, channel, target);
+	}
+
+	private UdpSender(Encoder encoder, BlockEncoder blockEncoder, DatagramChannel channel, SocketAddress target) {
+		this.encoder = encoder;
+		this.blockEncoder = blockEncoder;
+		this.channel = channel;
+		this.target = target;
+	}
+
+	/**
+	 *
+	 * @return A blocking channel bound to any local port
+	 * @throws IOException
+	 */
+	public static DatagramChannel open() throws IOException {
+		return DatagramChannel.open().bind(null);
+	}
+
+	/**
+	 *
+	 * @param ni Interface the packets are sent from
+	 * @param ttl Number of routers a packet can go through, 1 for the local 
+	 * network only
+	 * @return A blocking channel to send to an IPv4 multicast group
+	 * @throws IOException
+	 */
+	public static DatagramChannel openMulticast(NetworkInterface ni, int ttl) throws IOException {
+		DatagramChannel ch = DatagramChannel.open(StandardProtocolFamily.INET);
+		ch.setOption(StandardSocketOptions.IP_MULTICAST_IF, ni);
+		ch.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+		return ch.bind(null);
+	}
+
+	/**
+	 * Pace the sender, it's not paced by default
+	 * @param bytesPerSecond Including the UDP payload only, 0 to not pace
+	 */
+	public void setRate(long bytesPerSecond) {
+		setTokenBucket(bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, (long) batchSize * packetSize) : null);
+	}
+
+	/**
+	 * Pace the sender with a bucket that can be shared with other senders
+	 * @param bucket Null to not pace
+	 */
+	public void setTokenBucket(TokenBucket bucket) {
+		this.bucket = bucket;
+	}
+
+	/**
+	 *
+	 * @param packetSize Largest UDP payload, must fit at least one frame
+	 */
+	public void setPacketSize(int packetSize) {
+		this.packetSize = packetSize;
+		buffers = null;
+	}
+
+	/**
+	 *
+	 * @param framesPerPacket At most this many frames in a packet, as many 
+	 * as fit by default
+	 */
+	public void setFramesPerPacket(int framesPerPacket) {
+		this.framesPerPacket = framesPerPacket;
+	}
+
+	/**
+	 *
+	 * @param announceInterval Number of packets between two announces, 0 
+	 * to only send the first one
+	 */
+	public void setAnnounceInterval(int announceInterval) {
+		this.announceInterval = announceInterval;
+	}
+
+	/**
+	 *
+	 * @param batchSize Number of packets encoded before being sent
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+		buffers = null;
+	}
+
+	/**
+	 * Drop packets on purpose instead of sending them, to test a lossy link
+	 * @param loss Probability of dropping a packet, announces included
+	 * @param seed
+	 */
+	public void setLoss(double loss, long seed) {
+		this.loss = loss;
+		this.lossRandom = new SplitMix64(seed);
+	}
+
+	/**
+	 * Send packets, waiting for the pace
+	 * @param nPackets
+	 * @return Number of packets sent or dropped, less than nPackets if 
+	 * stopped before
+	 * @throws UncheckedIOException
+	 */
+	public long send(long nPackets) {
+		if (buffers == null) {
+			buffers = new ByteBuffer[batchSize];
+			for (int i = 0; i < batchSize; i++) {
+				buffers[i] = ByteBuffer.allocateDirect(packetSize);
+			}
+		}
+		if (startTime == 0) {
+			startTime = System.nanoTime();
+		}
+		long done = 0;
+		while (done < nPackets && !stopped) {
+			int n = (int) Math.min(batchSize, nPackets - done);
+			int bytes = 0;
+			for (int i = 0; i < n; i++) {
+				bytes += encode(buffers[i]);
+			}
+			if (bucket != null) {
+				bucket.acquire(bytes);
+			}
+			try {
+				for (int i = 0; i < n; i++) {
+					sendPacket(buffers[i]);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			done += n;
+		}
+		return done;
+	}
+
+	/**
+	 * Send until stopped
+	 */
+	@Override
+	public void run() {
+		while (!stopped) {
+			send(batchSize);
+		}
+	}
+
+	/**
+	 * Stop {@link #send(long)} or {@link #run()} after the current batch, 
+	 * from any thread
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Encode the next packet
+	 * @param buf
+	 * @return Number of bytes
+	 */
+	private int encode(ByteBuffer buf) {
+		buf.clear();
+		if (packetCount == 0 || (announceInterval > 0 && packetCount % announceInterval == 0)) {
+			if (encoder != null) {
+				encoder.writeAnnounce(buf);
+			} else {
+				blockEncoder.writeAnnounce(buf);
+			}
+		} else {
+			int frames = encoder != null ? encoder.nextPacket(buf, framesPerPacket) 
+					: blockEncoder.nextPacket(buf, framesPerPacket);
+			framesSent.add(frames);
+		}
+		packetCount++;
+		buf.flip();
+		return buf.remaining();
+	}
+
+	private void sendPacket(ByteBuffer buf) throws IOException {
+		if (lossRandom != null && lossRandom.nextDouble() < loss) {
+			packetsDropped.increment();
+			return;
+		}
+		int bytes = buf.remaining();
+		while (channel.send(buf, target) == 0) {
+			LockSupport.parkNanos(50_000); // Non blocking channel with a full socket buffer
+		}
+		packetsSent.increment();
+		bytesSent.add(bytes);
+	}
+
+	/**
+	 *
+	 * @return Number of packets sent, not counting those dropped on purpose
+	 */
+	public long getPacketsSent() {
+		return packetsSent.sum();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	/**
+	 *
+	 * @return Number of frames encoded, dropped ones included
+	 */
+	public long getFramesSent() {
+		return framesSent.sum();
+	}
+
+	/**
+	 *
+	 * @return Number of packets dropped on purpose, see {@link #setLoss(double, long)}
+	 */
+	public long getPacketsDropped() {
+		return packetsDropped.sum();
+	}
+
+	/**
+	 *
+	 * @return Bytes sent per second since the first send
+	 */
+	public double getThroughput() {
+		long start = startTime;
+		return start == 0 ? 0 : getBytesSent() * 1e9 / Math.max(1, System.nanoTime() - start);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("UdpSender[%d packets, %d frames, %d bytes, %d dropped, %.1f MB/s]", 
+				getPacketsSent(), getFramesSent(), getBytesSent(), getPacketsDropped(), getThroughput() / 1e6);
+	}
+
+}
@@ -0,0 +1,379 @@
+package com.wefeel.LT;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+import com.wefeel.LT.Random.SplitMix64;
+
+/**
+ * The v2 wire format: a packet carries one or more frames of a session 
+ * announced beforehand. <br>
+ * <br>
+ * A v1 frame repeats the nonce, filesize and flags of the stream in its 20 
+ * bytes header, and has no checksum. A v2 packet starts with the magic 
+ * {@code 'L' 'T'}, the version {@value #VERSION}, a type byte and a 4 bytes 
+ * session id standing for all of them. The session is described once by an 
+ * {@link #TYPE_ANNOUNCE} packet, that encoders send every now and then: 
+ * <pre>
+ * announce: nonce (8), object size (varint), flags (1), frame size (varint), 
+ *           [block count (varint) if FLAG_BLOCK], CRC32C (4) of the packet
+ * frames:   frame, frame, ... up to the end of the packet
+ * frame:    index (varint, zigzag delta from the previous frame of the packet 
+ *           after the first one), [block (varint) if FLAG_BLOCK], 
+ *           payload (frame size), CRC32C (4) of the frame
+ * </pre>
+ * The session id is a hash of the stream parameters, so a decoder 
+ * initialized by hand knows it without an announce. Frames of a session 
+ * not announced yet are dropped, as they can't be decoded anyway. <br>
+ * <br>
+ * The CRC32C (hardware accelerated by the JDK) drops corrupted frames 
+ * before they poison peeling. It is no authentication, so the fields of an 
+ * announce are range checked too. v1 and v2 are told apart by the magic: a v1 
+ * frame whose nonce happens to start with it would also need a valid 
+ * checksum to be taken for v2.
+ * @author R Wang
+ *
+ */
+public final class WireFormat {
+
+	public static final byte MAGIC_0 = 'L';
+	public static final byte MAGIC_1 = 'T';
+	public static final int VERSION = 2;
+	/** Packet describing a session */
+	public static final int TYPE_ANNOUNCE = 0;
+	/** Packet of frames */
+	public static final int TYPE_FRAMES = 1;
+	/** Magic, version, type and session id */
+	public static final int PACKET_HEADER_SIZE = 8;
+	private static final int CRC_SIZE = 4;
+	/** Longest varint of a 40 bits index, or of its zigzag delta */
+	private static final int MAX_INDEX_SIZE = 6;
+	/** Longest varint of a 16 bits block number */
+	private static final int MAX_BLOCK_SIZE = 3;
+
+	private static final ThreadLocal<CRC32C> CRC = ThreadLocal.withInitial(CRC32C::new);
+
+	private WireFormat() {
+	}
+
+	/**
+	 * 
+	 * @param packet From its position, not moved
+	 * @return true if it's a v2 packet
+	 */
+	public static boolean isV2(ByteBuffer packet) {
+		int at = packet.position();
+		return packet.remaining() >= PACKET_HEADER_SIZE 
+				&& packet.get(at) == MAGIC_0 && packet.get(at + 1) == MAGIC_1 
+				&& packet.get(at + 2) == VERSION;
+	}
+
+	public static boolean isV2(byte[] packet) {
+		return packet.length >= PACKET_HEADER_SIZE 
+				&& packet[0] == MAGIC_0 && packet[1] == MAGIC_1 && packet[2] == VERSION;
+	}
+
+	/**
+	 * 
+	 * @param nonce
+	 * @param objectSize Size of the whole object
+	 * @param flags
+	 * @param frameSize
+	 * @param blockCount 1 unless {@code FLAG_BLOCK} is set
+	 * @return Id of the session of a stream
+	 */
+	public static int sessionId(long nonce, long objectSize, int flags, int frameSize, int blockCount) {
+		long h = SplitMix64.mix64(nonce);
+		h = SplitMix64.mix64(h ^ objectSize);
+		h = SplitMix64.mix64(h ^ ((long) flags << 48 | (long) blockCount << 32 | frameSize));
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * 
+	 * @param flags
+	 * @param frameSize
+	 * @return Largest number of bytes of a frame in a packet
+	 */
+	public static int maxFrameSize(int flags, int frameSize) {
+		return MAX_INDEX_SIZE + ((flags & EncodedFrame.FLAG_BLOCK) != 0 ? MAX_BLOCK_SIZE : 0) + frameSize + CRC_SIZE;
+	}
+
+	/**
+	 * Check the description of an object read from the network, which a 
+	 * checksum doesn't authenticate
+	 * @param objectSize
+	 * @param flags
+	 * @param frameSize
+	 * @param blockCount Only checked if {@code FLAG_BLOCK} is set
+	 * @return true if its frames fit the 31 bits index space and every 
+	 * block has a frame at least
+	 */
+	static boolean isValidObject(long objectSize, int flags, int frameSize, int blockCount) {
+		if (objectSize <= 0 || frameSize <= 0) {
+			return false;
+		}
+		long nPackets = (objectSize + frameSize - 1) / frameSize;
+		if (nPackets > Integer.MAX_VALUE) {
+			return false;
+		}
+		return (flags & EncodedFrame.FLAG_BLOCK) == 0 
+				|| (blockCount >= 1 && blockCount <= Math.min(nPackets, SourceBlocks.MAX_BLOCKS));
+	}
+
+	static int type(ByteBuffer packet) {
+		return packet.get(packet.position() + 3) & 0xFF;
+	}
+
+	static int session(ByteBuffer packet) {
+		int at = packet.position() + 4;
+		return (packet.get(at) & 0xFF) << 24 | (packet.get(at + 1) & 0xFF) << 16 
+				| (packet.get(at + 2) & 0xFF) << 8 | (packet.get(at + 3) & 0xFF);
+	}
+
+	/**
+	 * Write the header of a packet at the position of out, and move it 
+	 * forward
+	 * @param out
+	 * @param type
+	 * @param session
+	 */
+	static void writeHeader(ByteBuffer out, int type, int session) {
+		out.put(MAGIC_0).put(MAGIC_1).put((byte) VERSION).put((byte) type);
+		putInt(out, session);
+	}
+
+	/**
+	 * Write an announce packet at the position of out, and move it forward
+	 * @param out
+	 * @param nonce
+	 * @param objectSize
+	 * @param flags
+	 * @param frameSize
+	 * @param blockCount
+	 * @throws BufferOverflowException
+	 */
+	public static void writeAnnounce(ByteBuffer out, long nonce, long objectSize, int flags, int frameSize, int blockCount) {
+		int start = out.position();
+		writeHeader(out, TYPE_ANNOUNCE, sessionId(nonce, objectSize, flags, frameSize, blockCount));
+		putInt(out, (int) (nonce >>> 32));
+		putInt(out, (int) nonce);
+		putVarLong(out, objectSize);
+		out.put((byte) flags);
+		putVarLong(out, frameSize);
+		if ((flags & EncodedFrame.FLAG_BLOCK) != 0) {
+			putVarLong(out, blockCount);
+		}
+		putCrc(out, start);
+	}
+
+	/**
+	 * Write a frame of a packet at the position of out, and move it forward
+	 * @param out With at least {@link #maxFrameSize(int, int)} remaining
+	 * @param index
+	 * @param previous Index of the previous frame of the packet, or -1 for the first one
+	 * @param flags
+	 * @param block
+	 * @param source
+	 * @param neighbors
+	 * @param frameSize
+	 */
+	static void writeFrame(ByteBuffer out, long index, long previous, int flags, int block, FrameSource source, int[] neighbors, int frameSize) {
+		int start = out.position();
+		putVarLong(out, previous < 0 ? index : zigzag(index - previous));
+		if ((flags & EncodedFrame.FLAG_BLOCK) != 0) {
+			putVarLong(out, block);
+		}
+		source.combine(out, out.position(), neighbors);
+		out.position(out.position() + frameSize);
+		putCrc(out, start);
+	}
+
+	private static void putCrc(ByteBuffer out, int start) {
+		CRC32C crc = CRC.get();
+		crc.reset();
+		crc.update(out.duplicate().position(start).limit(out.position()));
+		putInt(out, (int) crc.getValue());
+	}
+
+	/**
+	 * Big endian whatever the order of out
+	 */
+	private static void putInt(ByteBuffer out, int v) {
+		out.put((byte) (v >>> 24)).put((byte) (v >>> 16)).put((byte) (v >>> 8)).put((byte) v);
+	}
+
+	/**
+	 * 
+	 * @param in Big endian
+	 * @param start
+	 * @return true if the 4 bytes at the position of in are the CRC32C of 
+	 * {@code [start, position)}. in is moved past them
+	 */
+	private static boolean checkCrc(ByteBuffer in, int start) {
+		CRC32C crc = CRC.get();
+		crc.reset();
+		crc.update(in.duplicate().position(start).limit(in.position()));
+		return in.getInt() == (int) crc.getValue();
+	}
+
+	/**
+	 * Content of an announce packet
+	 */
+	static class Announce {
+		long nonce;
+		long objectSize;
+		int flags;
+		int frameSize;
+		int blockCount = 1;
+
+		/**
+		 * 
+		 * @param packet From its position, not moved
+		 * @return null if it's malformed or corrupted, or describes an object 
+		 * no decoder can be set up for, see {@link WireFormat#isValidObject}: 
+		 * the checksum only catches accidents, not forged announces
+		 */
+		static Announce read(ByteBuffer packet) {
+			ByteBuffer in = packet.slice();
+			try {
+				in.position(PACKET_HEADER_SIZE);
+				Announce a = new Announce();
+				a.nonce = in.getLong();
+				a.objectSize = getVarLong(in);
+				a.flags = in.get() & 0xFF;
+				long frameSize = getVarLong(in);
+				long blockCount = (a.flags & EncodedFrame.FLAG_BLOCK) != 0 ? getVarLong(in) : 1;
+				if (frameSize > Integer.MAX_VALUE || blockCount > Integer.MAX_VALUE) {
+					return null;
+				}
+				a.frameSize = (int) frameSize;
+				a.blockCount = (int) blockCount;
+				if (!checkCrc(in, 0) || session(in.rewind()) != a.sessionId() 
+						|| !isValidObject(a.objectSize, a.flags, a.frameSize, a.blockCount)) {
+					return null;
+				}
+				return a;
+			} catch (BufferUnderflowException | IllegalArgumentException e) {
+				return null;
+			}
+		}
+
+		int sessionId() {
+			return WireFormat.sessionId(nonce, objectSize, flags, frameSize, blockCount);
+		}
+	}
+
+	/**
+	 * Read the frames of a packet one after the other, without copying them
+	 */
+	static class FrameReader {
+		private final ByteBuffer in;
+		private final int flags;
+		private final int frameSize;
+		private long index = -1;
+		private int block;
+		private int payload;
+		private boolean corrupted;
+
+		/**
+		 * 
+		 * @param packet From its position, not moved
+		 * @param flags Of the session
+		 * @param frameSize Of the session
+		 */
+		FrameReader(ByteBuffer packet, int flags, int frameSize) {
+			in = packet.slice();
+			in.position(PACKET_HEADER_SIZE);
+			this.flags = flags;
+			this.frameSize = frameSize;
+		}
+
+		/**
+		 * Move to the next frame. After a corrupted frame the rest of the 
+		 * packet is dropped, as the indexes that follow are deltas from its 
+		 * own
+		 * @return false at the end of the packet, or if the frame is corrupted 
+		 * or has a negative index or block
+		 */
+		boolean next() {
+			if (!in.hasRemaining()) {
+				return false;
+			}
+			int start = in.position();
+			try {
+				long v = getVarLong(in);
+				index = index < 0 ? v : index + unzigzag(v);
+				block = (flags & EncodedFrame.FLAG_BLOCK) != 0 ? (int) getVarLong(in) : 0;
+				payload = in.position();
+				in.position(payload + frameSize);
+				// Only a forged packet can have a valid CRC and a negative index
+				if (index >= 0 && block >= 0 && checkCrc(in, start)) {
+					return true;
+				}
+			} catch (BufferUnderflowException | IllegalArgumentException e) {
+				// Truncated
+			}
+			corrupted = true;
+			in.position(in.limit());
+			return false;
+		}
+
+		long getIndex() {
+			return index;
+		}
+
+		int getBlock() {
+			return block;
+		}
+
+		/**
+		 * Copy the payload of the current frame
+		 * @param dst frameSize long
+		 */
+		void getPayload(byte[] dst) {
+			in.get(payload, dst, 0, frameSize);
+		}
+
+		/**
+		 * 
+		 * @return true if reading stopped at a corrupted frame
+		 */
+		boolean isCorrupted() {
+			return corrupted;
+		}
+	}
+
+	// Varints, 7 bits per byte, low bits first
+
+	static void putVarLong(ByteBuffer out, long v) {
+		while ((v & ~0x7Fl) != 0) {
+			out.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.put((byte) v);
+	}
+
+	static long getVarLong(ByteBuffer in) {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			v |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return v;
+			}
+		}
+		throw new IllegalArgumentException("Varint too long");
+	}
+
+	static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+}
@@ -0,0 +1,184 @@
+package com.wefeel.LT;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bulk XOR of frame payloads. <br>
+ * <br>
+ * Every encoded frame costs one XOR pass per neighbor, both when it is
+ * generated by the {@code Encoder} and when it is peeled by the
+ * {@code Decoder}, so this is where most of the CPU time goes. Two
+ * implementations are available: {@code LongXorEngine} which works on 8
+ * bytes at a time through a {@code VarHandle} view of the byte[], and
+ * {@code ScalarXorEngine} which is the plain byte loop. <br>
+ * <br>
+ * The default engine is picked once when the class is loaded. It can be
+ * forced with the system property {@value #PROPERTY} set to {@code scalar}
+ * or {@code long}, or replaced at runtime with {@link #setDefault(XorEngine)}.
+ * If the long word engine can't be created on this platform we fall back to
+ * the scalar one.
+ *
+ * @author R Wang
+ *
+ */
+public abstract class XorEngine {
+
+	public static final String PROPERTY = "com.wefeel.LT.xor";
+
+	/** Maximum number of sources XOR'ed together in a single pass */
+	public static final int FUSE_WIDTH = 4;
+
+	private static volatile XorEngine defaultEngine = detect();
+
+	/**
+	 *
+	 * @return The engine used by the encoder and decoder
+	 */
+	public static XorEngine get() {
+		return defaultEngine;
+	}
+
+	/**
+	 * Replace the engine used by the encoder and decoder
+	 * @param engine
+	 */
+	public static void setDefault(XorEngine engine) {
+		if (engine == null) {
+			throw new IllegalArgumentException("XorEngine cannot be null");
+		}
+		defaultEngine = engine;
+	}
+
+	private static XorEngine detect() {
+		String name = System.getProperty(PROPERTY, "long");
+		if ("scalar".equalsIgnoreCase(name)) {
+			return new ScalarXorEngine();
+		}
+		try {
+			return new LongXorEngine();
+		} catch (RuntimeException | LinkageError e) {
+			// VarHandle views not supported, the byte loop always works
+			return new ScalarXorEngine();
+		}
+	}
+
+	/**
+	 * {@code target[targetOffset, targetOffset + len) ^= src[srcOffset, srcOffset + len)}
+	 * @param target
+	 * @param targetOffset
+	 * @param src
+	 * @param srcOffset
+	 * @param len
+	 */
+	public abstract void xor(byte[] target, int targetOffset, byte[] src, int srcOffset, int len);
+
+	/**
+	 * {@code target[targetOffset, targetOffset + len) ^= src[srcIndex, srcIndex + len)}
+	 * using absolute positions, so the position and limit of {@code src}
+	 * are left untouched
+	 * @param target
+	 * @param targetOffset
+	 * @param src heap or direct buffer
+	 * @param srcIndex
+	 * @param len
+	 */
+	public abstract void xor(byte[] target, int targetOffset, ByteBuffer src, int srcIndex, int len);
+
+	/**
+	 * {@code target[targetIndex, targetIndex + len) ^= src[srcOffset, srcOffset + len)}
+	 * using absolute positions in target
+	 * @param target heap or direct buffer, must be writable
+	 * @param targetIndex
+	 * @param src
+	 * @param srcOffset
+	 * @param len
+	 */
+	public abstract void xor(ByteBuffer target, int targetIndex, byte[] src, int srcOffset, int len);
+
+	/**
+	 * {@code target[targetIndex, targetIndex + len) ^= src[srcIndex, srcIndex + len)}
+	 * using absolute positions in both buffers
+	 * @param target heap or direct buffer, must be writable
+	 * @param targetIndex
+	 * @param src heap or direct buffer
+	 * @param srcIndex
+	 * @param len
+	 */
+	public abstract void xor(ByteBuffer target, int targetIndex, ByteBuffer src, int srcIndex, int len);
+
+	/**
+	 * XOR up to {@link #FUSE_WIDTH} sources into target in one pass over the
+	 * memory. Unused sources are {@code null} and must be at the end
+	 * @param target
+	 * @param a
+	 * @param b
+	 * @param c may be null
+	 * @param d may be null
+	 * @param len
+	 */
+	protected abstract void xor(byte[] target, byte[] a, byte[] b, byte[] c, byte[] d, int len);
+
+	/**
+	 * XOR all of {@code anotherArr} into {@code target}.
+	 * @param target
+	 * @param anotherArr must be at least as long as target
+	 */
+	public void xor(byte[] target, byte[] anotherArr) {
+		xor(target, 0, anotherArr, 0, target.length);
+	}
+
+	/**
+	 * XOR {@code sources[indexes[from]]} to {@code sources[indexes[to - 1]]}
+	 * into target, fusing several sources into each pass
+	 * @param target
+	 * @param sources
+	 * @param indexes
+	 * @param from inclusive
+	 * @param to exclusive
+	 */
+	public void xor(byte[] target, byte[][] sources, int[] indexes, int from, int to) {
+		int len = target.length;
+		int i = from;
+		while (to - i >= 2) {
+			int n = Math.min(FUSE_WIDTH, to - i);
+			xor(target,
+					sources[indexes[i]],
+					sources[indexes[i + 1]],
+					n > 2 ? sources[indexes[i + 2]] : null,
+					n > 3 ? sources[indexes[i + 3]] : null,
+					len);
+			i += n;
+		}
+		if (i < to) {
+			xor(target, 0, sources[indexes[i]], 0, len);
+		}
+	}
+
+	/**
+	 * Overwrite target with the XOR of all {@code sources[indexes[i]]}
+	 * @param target
+	 * @param sources
+	 * @param indexes must not be empty
+	 */
+	public void combine(byte[] target, byte[][] sources, int[] indexes) {
+		System.arraycopy(sources[indexes[0]], 0, target, 0, target.length);
+		xor(target, sources, indexes, 1, indexes.length);
+	}
+
+	/**
+	 * Overwrite {@code len} bytes of target from {@code targetIndex} with the 
+	 * XOR of all {@code sources[indexes[i]]}
+	 * @param target
+	 * @param targetIndex
+	 * @param sources
+	 * @param indexes must not be empty
+	 * @param len
+	 */
+	public void combine(ByteBuffer target, int targetIndex, byte[][] sources, int[] indexes, int len) {
+		target.put(targetIndex, sources[indexes[0]], 0, len);
+		for (int i = 1; i < indexes.length; i++) {
+			xor(target, targetIndex, sources[indexes[i]], 0, len);
+		}
+	}
+
+}
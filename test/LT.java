@@ -2,7 +2,14 @@
 import com.wefeel.LT.Decoder;
 import com.wefeel.LT.EncodedFrame;
 import com.wefeel.LT.Encoder;
+import com.wefeel.LT.EncoderScheduler;
+import com.wefeel.LT.Transport.UdpReceiver;
+import com.wefeel.LT.Transport.UdpSender;
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
@@ -45,6 +52,18 @@ public class LT {
             is.close();
             is = new FileInputStream(new File(filePath));
             outOfOrderArrivalTest(is, frameSize, nonce);
+            is.close();
+            is = new FileInputStream(new File(filePath));
+            concurrentReceiveTest(is, frameSize, nonce);
+            is.close();
+            is = new FileInputStream(new File(filePath));
+            loopbackTest(is, frameSize, nonce);
+            is.close();
+            is = new FileInputStream(new File(filePath));
+            tunedTest(is, frameSize, nonce);
+            is.close();
+            is = new FileInputStream(new File(filePath));
+            schedulerTest(is, frameSize, nonce);
             
         } catch (FileNotFoundException e) {
             e.printStackTrace();
@@ -130,4 +149,141 @@ public class LT {
         }
         
     }
+
+    private static void concurrentReceiveTest(InputStream is, int frameSize, long nonce) throws IOException {
+        System.out.println();
+        System.out.println("Concurrent test with data loss and duplicates");
+        
+        Encoder e = Encoder.get(is, frameSize, nonce);
+        System.out.println("Data converted to " + e.getNPackets() + " frames of " + e.getFrameSize() + " bytes each.");
+        System.out.println("--------------------");
+        
+        // Same stream received on 4 sockets, each losing 30% and duplicating 10%
+        int nThreads = 4;
+        List<byte[]> frames = new ArrayList<>();
+        Random r = new Random();
+        for (int i = 0; i < e.getNPackets() * 4; i++) {
+            byte[] next = e.next().toByteArr();
+            if (r.nextDouble() < 0.3) continue;
+            frames.add(next);
+            if (r.nextDouble() < 0.1) frames.add(next);
+        }
+        Collections.shuffle(frames, r);
+        Decoder d = new Decoder();
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                for (int i = first; i < frames.size() && !d.finished(); i += nThreads) {
+                    d.frameReceived(frames.get(i));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                Logger.getLogger(LT.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        if (d.finished()) {
+            System.out.println("Data transmission completed by " + nThreads + " threads");
+            System.out.println("Hash: " + hash(d.getDecoded()));
+        } else {
+            System.out.println("Not finished, " + d.numFrameDecoded() + " frames decoded");
+        }
+    }
+
+    private static void tunedTest(InputStream is, int frameSize, long nonce) throws IOException {
+        System.out.println();
+        System.out.println("Tuned degree distribution, with 50% loss");
+        Encoder e = Encoder.get(is, frameSize, nonce, EncodedFrame.FLAG_TUNED | EncodedFrame.FLAG_COUNTER);
+        System.out.println("Parameter id " + EncodedFrame.parameterId(e.getFlags()) + ": " + e.getParameters());
+        Decoder d = new Decoder();
+        int sent = 0;
+        while (!d.finished()) {
+            byte[] next = e.next().toByteArr();
+            sent++;
+            if (Math.random() < 0.5) {
+                d.frameReceived(next);
+            }
+        }
+        System.out.println("Decoded with " + d.getParameters() + " after " + sent + " frames sent for " + e.getNPackets() + " frames");
+        System.out.println("Hash: " + hash(d.getDecoded()));
+    }
+
+    private static void schedulerTest(InputStream is, int frameSize, long nonce) throws IOException {
+        System.out.println();
+        System.out.println("Scheduler test, one systematic session filling whole batches");
+        Encoder e = Encoder.get(is, frameSize, nonce, EncodedFrame.FLAG_SYSTEMATIC);
+        int frames = 2 * e.getNPackets() + 64;
+        try (EncoderScheduler s = new EncoderScheduler(EncoderScheduler.Mode.FAIR, 256)) {
+            s.setBatchSize(64);
+            s.add(e, 1, frames, 0, null);
+            s.start();
+            for (int i = 0; i < frames; i++) {
+                EncodedFrame f = s.take();
+                if (f.getIndex() != i) {
+                    throw new AssertionError("Frame " + f.getIndex() + " taken at " + i);
+                }
+                int[] neighbors = f.getNeighbors();
+                if (i < e.getNPackets() && (neighbors.length != 1 || neighbors[0] != i)) {
+                    throw new AssertionError("Frame " + i + " is not source frame " + i);
+                }
+            }
+            // An encoder closed while scheduled is dropped, the others go on
+            Encoder closed = new Encoder(new byte[16 * frameSize], frameSize, nonce + 1);
+            closed.close();
+            s.add(closed, 1);
+            s.add(e, 1, frames, 0, null);
+            for (int i = 0; i < frames; i++) {
+                if (s.getQueue().poll(10, TimeUnit.SECONDS) == null) {
+                    throw new AssertionError("Scheduler stopped after " + i + " frames");
+                }
+            }
+            if (s.getFailedCount() != 1) {
+                throw new AssertionError(s.getFailedCount() + " sessions failed");
+            }
+        } catch (InterruptedException ex) {
+            Logger.getLogger(LT.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        System.out.println(frames + " frames in order, the first " + e.getNPackets() + " systematic, a closed encoder dropped");
+    }
+
+    private static void loopbackTest(InputStream is, int frameSize, long nonce) throws IOException {
+        System.out.println();
+        System.out.println("UDP loopback test with data loss");
+        
+        Encoder e = Encoder.get(is, frameSize, nonce);
+        System.out.println("Data converted to " + e.getNPackets() + " frames of " + e.getFrameSize() + " bytes each.");
+        System.out.println("--------------------");
+        
+        Decoder d = new Decoder();
+        try (DatagramChannel in = UdpReceiver.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                DatagramChannel out = UdpSender.open();
+                UdpReceiver receiver = new UdpReceiver(d, in)) {
+            UdpSender sender = new UdpSender(e, out, in.getLocalAddress());
+            sender.setRate(10_000_000);
+            sender.setLoss(0.3, nonce);
+            receiver.setLoss(0.1, nonce + 1);
+            Thread t = new Thread(sender);
+            t.start();
+            boolean finished = receiver.receive(30, TimeUnit.SECONDS);
+            sender.stop();
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                Logger.getLogger(LT.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            System.out.println(sender);
+            System.out.println(receiver);
+            if (finished) {
+                System.out.println("Data transmission completed at " + receiver.getPacketsReceived() + " packets received");
+                System.out.println("Hash: " + hash(d.getDecoded()));
+            } else {
+                System.out.println("Not finished, " + d.numFrameDecoded() + " frames decoded");
+            }
+        }
+    }
 }
@@ -0,0 +1,84 @@
+import com.wefeel.LT.Decoder;
+import com.wefeel.LT.EncodedFrame;
+import com.wefeel.LT.Encoder;
+import java.util.*;
+
+/**
+ * Simulate transfers and report the reception overhead, i.e. how many 
+ * frames the decoder needs on top of the number of source frames, for 
+ * each encoding mode, with peeling only and with the inactivation decoding 
+ * fallback. Loss doesn't change the overhead of the random frames, so 
+ * every frame generated is received.
+ * 
+ * Usage: java OverheadBenchmark [trials] [k ...]
+ *
+ * @author R Wang
+ */
+public class OverheadBenchmark {
+    
+    /** Payload doesn't matter for the overhead, keep it small */
+    static final int FRAME_SIZE = 16;
+    
+    static final String[] NAMES = {"robust soliton", "precode", "robust soliton", "precode"};
+    static final int[] FLAGS = {0, EncodedFrame.FLAG_PRECODE, 0, EncodedFrame.FLAG_PRECODE};
+    static final boolean[] INACTIVATION = {false, false, true, true};
+    
+    public static void main(String[] args) {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int[] ks = {100, 1000, 10000};
+        if (args.length > 1) {
+            ks = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                ks[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%-16s %-12s %8s %10s %10s %10s %10s%n", "mode", "decoding", "k", "mean", "p95", "worst", "ms");
+        Random r = new Random(0);
+        for (int k : ks) {
+            byte[] data = new byte[k * FRAME_SIZE];
+            r.nextBytes(data);
+            for (int m = 0; m < FLAGS.length; m++) {
+                int[] received = new int[trials];
+                long start = System.nanoTime();
+                for (int t = 0; t < trials; t++) {
+                    received[t] = transfer(data, r.nextLong(), FLAGS[m], INACTIVATION[m]);
+                }
+                double ms = (System.nanoTime() - start) / 1e6 / trials;
+                Arrays.sort(received);
+                double sum = 0;
+                for (int n : received) sum += n;
+                System.out.printf("%-16s %-12s %8d %9.1f%% %9.1f%% %9.1f%% %10.1f%n", NAMES[m], 
+                        INACTIVATION[m] ? "inactivation" : "peeling", k, 
+                        overhead(sum / trials, k), 
+                        overhead(received[(int) Math.ceil(trials * 0.95) - 1], k), 
+                        overhead(received[trials - 1], k), 
+                        ms);
+            }
+        }
+    }
+    
+    /**
+     * 
+     * @return Number of frames received until the data is decoded
+     */
+    static int transfer(byte[] data, long nonce, int flags, boolean inactivation) {
+        Encoder e = new Encoder(data, FRAME_SIZE, nonce, flags);
+        Decoder d = new Decoder();
+        d.setInactivationDecoding(inactivation);
+        int n = 0;
+        do {
+            d.frameReceived(e.next());
+            n++;
+        } while (!d.finished());
+        if (!Arrays.equals(data, d.getDecoded())) {
+            throw new RuntimeException("Decoded data doesn't match");
+        }
+        e.close();
+        d.close();
+        return n;
+    }
+    
+    static double overhead(double received, int k) {
+        return (received / k - 1) * 100;
+    }
+}
@@ -0,0 +1,59 @@
+import com.wefeel.LT.CodeParameters;
+import com.wefeel.LT.EncodedFrame;
+import com.wefeel.LT.Simulation.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Simulate transfers over lossy links for a grid of parameters, and write 
+ * the distribution of the frames needed as CSV and JSON, see 
+ * {@code Simulator}.
+ * 
+ * Usage: java OverheadSimulation [trials] [output prefix]
+ *
+ * @author R Wang
+ */
+public class OverheadSimulation {
+    
+    public static void main(String[] args) throws IOException {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        String prefix = args.length > 1 ? args[1] : "overhead";
+        
+        LossModel[] losses = {
+            new BernoulliLoss(0.1),
+            GilbertElliottLoss.ofBursts(0.1, 10),
+            new ReorderingLoss(new BernoulliLoss(0.1), 64)
+        };
+        List<CodeParameters> parameters = new ArrayList<>();
+        parameters.add(CodeParameters.DEFAULT);
+        for (double c : new double[] {0.03, 0.1, 0.3}) {
+            for (double delta : new double[] {0.05, 0.5}) {
+                parameters.add(CodeParameters.withC(c, delta));
+            }
+        }
+        List<Scenario> scenarios = new ArrayList<>();
+        for (int k : new int[] {100, 1000, 10000}) {
+            for (CodeParameters p : parameters) {
+                for (LossModel loss : losses) {
+                    scenarios.add(new Scenario(k, 1024, EncodedFrame.FLAG_COUNTER, p, loss));
+                }
+            }
+        }
+        
+        Simulator simulator = new Simulator(trials, 0);
+        simulator.setInactivationDecoding(false); // Peeling alone, to compare distributions
+        List<Result> results = new ArrayList<>();
+        for (Scenario s : scenarios) {
+            Result r = simulator.run(s);
+            System.out.println(r);
+            results.add(r);
+        }
+        try (Writer out = new FileWriter(prefix + ".csv")) {
+            Simulator.writeCsv(results, out);
+        }
+        try (Writer out = new FileWriter(prefix + ".json")) {
+            Simulator.writeJson(results, out);
+        }
+        System.out.println("Written to " + prefix + ".csv and " + prefix + ".json");
+    }
+}
@@ -0,0 +1,71 @@
+import com.wefeel.LT.CodeParameters;
+import com.wefeel.LT.Simulation.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Tune the degree distribution for each range of k of
+ * {@code ParameterTable}, and print the rows of the table, see
+ * {@code ParameterTuner}. The ranges are tuned at their geometric middle,
+ * and the last one at 3 times its lower bound, with the decoder as it is
+ * by default, i.e. with inactivation decoding. Consecutive ranges with the
+ * same best parameters are merged.
+ *
+ * Usage: java ParameterTuning [trials] [output prefix]
+ *
+ * @author R Wang
+ */
+public class ParameterTuning {
+
+    static final int[] MIN_K = {1, 200, 2000, 20000};
+
+    public static void main(String[] args) throws IOException {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        String prefix = args.length > 1 ? args[1] : "tuning";
+
+        double maxOverhead = 1;
+        List<Result> results = new ArrayList<>();
+        List<String> rows = new ArrayList<>();
+        CodeParameters previous = null;
+        for (int i = 0; i < MIN_K.length; i++) {
+            int k = i + 1 < MIN_K.length ? (int) Math.sqrt((double) Math.max(MIN_K[i], 20) * MIN_K[i + 1]) : 3 * MIN_K[i];
+            // Inactivation decoding gets slow for large k, fewer trials are enough there
+            Simulator simulator = new Simulator(Math.max(5, (int) (trials * Math.min(1, 3000.0 / k))), i);
+            simulator.setMaxOverhead(maxOverhead);
+            ParameterTuner tuner = new ParameterTuner(simulator, new BernoulliLoss(0.1), maxOverhead);
+            // Spikes around the default ln(k)^2
+            double ln2 = Math.log(k) * Math.log(k);
+            List<Integer> spikes = new ArrayList<>();
+            for (double scale : new double[] {0.25, 0.5, 1, 2}) {
+                int spike = (int) Math.ceil(scale * ln2);
+                if (spike < k) spikes.add(spike);
+            }
+            List<CodeParameters> candidates = ParameterTuner.grid(
+                    new double[] {0.01, 0.02, 0.03, 0.05, 0.1},
+                    spikes.stream().mapToInt(Integer::intValue).toArray(),
+                    new double[] {0.05, 0.5});
+            CodeParameters best = tuner.tune(k, candidates);
+            results.addAll(tuner.getResults());
+            for (Result r : tuner.getResults()) {
+                System.out.printf("%s, cost %.4f, std error %.4f%n", r, 
+                        tuner.cost(r, r.getScenario().getParameters(), k), tuner.costStdError(r));
+            }
+            System.out.println("k >= " + MIN_K[i] + " (tuned at " + k + "): " + best);
+            System.out.println();
+            if (best.equals(previous)) {
+                continue; // Same row as the range below
+            }
+            previous = best;
+            rows.add((best.equals(CodeParameters.DEFAULT) ? "CodeParameters.DEFAULT"
+                    : best.getC() > 0 ? "CodeParameters.withC(" + best.getC() + ", " + best.getDelta() + ")"
+                    : "CodeParameters.withSpike(" + best.getSpike() + ", " + best.getDelta() + ")")
+                    + ", // k >= " + MIN_K[i]);
+        }
+        for (String row : rows) {
+            System.out.println(row);
+        }
+        try (Writer out = new FileWriter(prefix + ".csv")) {
+            Simulator.writeCsv(results, out);
+        }
+    }
+}